@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.router.Router;
+
+import java.util.Random;
+
+/**
+ * Generates a route table with a realistic mix of routes, and requests for it.
+ *
+ * <p>For every 10 routes: 5 are constant, 3 have a {@code :param}, 1 has 2
+ * {@code :params}, and 1 ends with {@code :*}. Every 7th route is POST, the
+ * others are GET. Routes are spread into 50 groups sharing a prefix, like
+ * resources of an API.
+ */
+final class RouteTable {
+    // Power of 2, see next()
+    private static final int NUM_REQUESTS = 1024;
+
+    final Router<String> router = new Router<String>();
+
+    // Requests: about 10% don't match any route
+    final HttpMethod[] methods = new HttpMethod[NUM_REQUESTS];
+    final String[] uris = new String[NUM_REQUESTS];
+
+    // Reverse routing: target and params of existing routes
+    final String[] targets = new String[NUM_REQUESTS];
+    final Object[][] params = new Object[NUM_REQUESTS][];
+
+    private int index;
+
+    RouteTable(int numRoutes) {
+        for (int i = 0; i < numRoutes; i++) {
+            router.addRoute(method(i), pattern(i), target(i));
+        }
+        router.notFound("404");
+
+        // Fixed seed so that runs are comparable
+        Random random = new Random(42);
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            int route = random.nextInt(numRoutes);
+            methods[i] = method(route);
+            uris[i] = (random.nextInt(10) == 0) ? "/api/missing/" + route : uri(route, random);
+            targets[i] = target(route);
+            params[i] = params(route);
+        }
+    }
+
+    /**
+     * Returns the index of the next request, cycling through all requests.
+     */
+    int next() {
+        int ret = index;
+        index = (index + 1) & (NUM_REQUESTS - 1);
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static HttpMethod method(int route) {
+        return (route % 7 == 0) ? HttpMethod.POST : HttpMethod.GET;
+    }
+
+    private static String target(int route) {
+        return "target" + route;
+    }
+
+    private static String group(int route) {
+        return "/api/group" + (route % 50);
+    }
+
+    private static String pattern(int route) {
+        switch (route % 10) {
+            case 5:
+            case 6:
+            case 7:
+                return group(route) + "/items" + route + "/:id";
+            case 8:
+                return group(route) + "/users" + route + "/:userId/posts/:postId";
+            case 9:
+                return "/files" + route + "/:*";
+            default:
+                return group(route) + "/static" + route;
+        }
+    }
+
+    private static String uri(int route, Random random) {
+        switch (route % 10) {
+            case 5:
+            case 6:
+            case 7:
+                return group(route) + "/items" + route + '/' + random.nextInt(100000) + "?page=2";
+            case 8:
+                return group(route) + "/users" + route + '/' + random.nextInt(1000) + "/posts/" + random.nextInt(1000);
+            case 9:
+                return "/files" + route + "/images/2017/photo" + random.nextInt(1000) + ".png";
+            default:
+                return group(route) + "/static" + route;
+        }
+    }
+
+    private static Object[] params(int route) {
+        switch (route % 10) {
+            case 5:
+            case 6:
+            case 7:
+                return new Object[] { "id", 123, "page", 2 };
+            case 8:
+                return new Object[] { "userId", 1, "postId", 2 };
+            case 9:
+                return new Object[] { "*", "images/photo.png" };
+            default:
+                return new Object[0];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.microbench.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.router.CompiledRouter;
+import io.netty.handler.codec.http.router.RouteMatch;
+import io.netty.handler.codec.http.router.RouteResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing, reverse routing, and allowed methods, for route tables of different sizes.
+ *
+ * <p>Run with {@code sbt "bench/jmh:run -prof gc"} to also see the allocation rate.
+ * Throughput is reported in ops/us, latency percentiles in us/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    @Param({ "10", "100", "1000", "10000" })
+    public int numRoutes;
+
+    private RouteTable table;
+    private CompiledRouter<String> router;
+    private CompiledRouter<String> cachedRouter;
+    private final RouteMatch<String> match = new RouteMatch<String>();
+
+    // Requests of a read burst, see routeAll()
+    private static final int BATCH_SIZE = 32;
+    private final HttpMethod[] batchMethods = new HttpMethod[BATCH_SIZE];
+    private final CharSequence[] batchUris = new CharSequence[BATCH_SIZE];
+    @SuppressWarnings("unchecked")
+    private final RouteResult<String>[] batchResults = new RouteResult[BATCH_SIZE];
+
+    @Setup
+    public void setUp() {
+        table = new RouteTable(numRoutes);
+        router = table.router.compile();
+        cachedRouter = table.router.routeCache(1024).compile();
+    }
+
+    @Benchmark
+    public RouteResult<String> route() {
+        int i = table.next();
+        return router.route(table.methods[i], table.uris[i]);
+    }
+
+    @Benchmark
+    public String routeMatch() {
+        int i = table.next();
+        router.route(table.methods[i], table.uris[i], match);
+        return match.target();
+    }
+
+    @Benchmark
+    public String routeMatchCached() {
+        int i = table.next();
+        cachedRouter.route(table.methods[i], table.uris[i], match);
+        return match.target();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int routeAll() {
+        for (int j = 0; j < BATCH_SIZE; j++) {
+            int i = table.next();
+            batchMethods[j] = table.methods[i];
+            batchUris[j] = table.uris[i];
+        }
+        return router.routeAll(batchMethods, batchUris, batchResults);
+    }
+
+    @Benchmark
+    public String uri() {
+        int i = table.next();
+        return router.uri(table.targets[i], table.params[i]);
+    }
+
+    @Benchmark
+    public Set<HttpMethod> allowedMethods() {
+        int i = table.next();
+        return router.allowedMethods(table.uris[i]);
+    }
+}
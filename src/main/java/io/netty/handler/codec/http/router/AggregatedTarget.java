@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.ObjectUtil;
+
+/**
+ * Route target that aggregates the request and its content into a
+ * {@link FullHttpRequest} before passing it to another target, for routes
+ * that need the whole body. Other routes of a {@link RouterHandler} receive
+ * the content as it arrives, without buffering it.
+ *
+ * <pre>
+ * {@code
+ * router
+ *   .POST("/uploads",  uploadHandler)  // Streamed
+ *   .POST("/articles", new AggregatedTarget(createHandler, 1024 * 1024));
+ * }
+ * </pre>
+ *
+ * <p>Like {@link io.netty.handler.codec.http.HttpObjectAggregator}, a request
+ * whose content is longer than {@code maxContentLength} is answered with
+ * {@code 413 Request Entity Too Large} and the connection is closed;
+ * {@code Expect: 100-continue} is answered with {@code 100 Continue}.
+ *
+ * <p>The request being aggregated is kept in a channel attribute, so an
+ * instance can be shared by all channels.
+ */
+@Sharable
+public class AggregatedTarget extends ChannelInboundHandlerAdapter {
+    private static final AttributeKey<Aggregation> AGGREGATION =
+            AttributeKey.valueOf(AggregatedTarget.class, "AGGREGATION");
+
+    // The request head and its content received so far
+    private static final class Aggregation {
+        final HttpRequest request;
+        final CompositeByteBuf content;
+
+        // Set when the content is too long; the rest of it is discarded
+        boolean discarding;
+
+        Aggregation(HttpRequest request, CompositeByteBuf content) {
+            this.request = request;
+            this.content = content;
+        }
+    }
+
+    private final ChannelInboundHandler target;
+    private final int maxContentLength;
+
+    public AggregatedTarget(ChannelInboundHandler target, int maxContentLength) {
+        this.target = ObjectUtil.checkNotNull(target, "target");
+        this.maxContentLength = ObjectUtil.checkPositiveOrZero(maxContentLength, "maxContentLength");
+    }
+
+    public ChannelInboundHandler target() {
+        return target;
+    }
+
+    public int maxContentLength() {
+        return maxContentLength;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof FullHttpRequest) {
+            releasePending(ctx.channel());
+            target.channelRead(ctx, msg);
+        } else if (msg instanceof HttpRequest) {
+            releasePending(ctx.channel());
+            startAggregation(ctx, (HttpRequest) msg);
+        } else if (msg instanceof HttpContent) {
+            aggregate(ctx, (HttpContent) msg);
+        } else {
+            target.channelRead(ctx, msg);
+        }
+    }
+
+    private void startAggregation(ChannelHandlerContext ctx, HttpRequest req) {
+        if (HttpUtil.getContentLength(req, -1L) > maxContentLength) {
+            Aggregation aggregation = new Aggregation(req, null);
+            aggregation.discarding = true;
+            ctx.channel().attr(AGGREGATION).set(aggregation);
+            tooLarge(ctx);
+            return;
+        }
+
+        if (HttpUtil.is100ContinueExpected(req)) {
+            ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+            req.headers().remove(HttpHeaderNames.EXPECT);
+        }
+
+        ctx.channel().attr(AGGREGATION).set(new Aggregation(req, ctx.alloc().compositeBuffer()));
+    }
+
+    private void aggregate(ChannelHandlerContext ctx, HttpContent chunk) throws Exception {
+        Aggregation aggregation = ctx.channel().attr(AGGREGATION).get();
+        if (aggregation == null || aggregation.discarding) {
+            chunk.release();
+            if (chunk instanceof LastHttpContent) {
+                ctx.channel().attr(AGGREGATION).set(null);
+            }
+            return;
+        }
+
+        CompositeByteBuf content = aggregation.content;
+        ByteBuf buf = chunk.content();
+        if (content.readableBytes() + buf.readableBytes() > maxContentLength) {
+            chunk.release();
+            content.release();
+            aggregation.discarding = true;
+            tooLarge(ctx);
+            if (chunk instanceof LastHttpContent) {
+                ctx.channel().attr(AGGREGATION).set(null);
+            }
+            return;
+        }
+
+        // The composite buffer takes over the chunk's reference
+        content.addComponent(true, buf);
+        if (!(chunk instanceof LastHttpContent)) {
+            return;
+        }
+
+        ctx.channel().attr(AGGREGATION).set(null);
+        HttpRequest req = aggregation.request;
+        FullHttpRequest full = new DefaultFullHttpRequest(
+                req.protocolVersion(), req.method(), req.uri(), content,
+                req.headers(), ((LastHttpContent) chunk).trailingHeaders());
+        full.setDecoderResult(req.decoderResult());
+        HttpUtil.setContentLength(full, content.readableBytes());
+        HttpUtil.setTransferEncodingChunked(full, false);
+        target.channelRead(ctx, full);
+    }
+
+    private static void tooLarge(ChannelHandlerContext ctx) {
+        FullHttpResponse res = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, Unpooled.EMPTY_BUFFER);
+        HttpUtil.setContentLength(res, 0);
+        ctx.writeAndFlush(res).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Releases the content of the request being aggregated, if any.
+     * Called by {@link RouterHandler} when the channel is closed.
+     */
+    static void releasePending(Channel channel) {
+        if (!channel.hasAttr(AGGREGATION)) {
+            return;
+        }
+
+        Aggregation aggregation = channel.attr(AGGREGATION).getAndSet(null);
+        if (aggregation != null && !aggregation.discarding) {
+            ReferenceCountUtil.release(aggregation.content);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * View of the readable bytes of a {@link ByteBuf} as ASCII chars, without copying.
+ *
+ * <p>Request URIs are ASCII: other chars must be percent-encoded.
+ */
+final class AsciiByteBufSequence implements CharSequence {
+    private final ByteBuf buf;
+    private final int offset;
+    private final int length;
+
+    AsciiByteBufSequence(ByteBuf buf) {
+        this(buf, buf.readerIndex(), buf.readableBytes());
+    }
+
+    private AsciiByteBufSequence(ByteBuf buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + " (expected: 0 <= index < " + length + ')');
+        }
+        return (char) (buf.getByte(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(
+                    "start: " + start + ", end: " + end + " (expected: 0 <= start <= end <= " + length + ')');
+        }
+        return new AsciiByteBufSequence(buf, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return buf.toString(offset, length, CharsetUtil.ISO_8859_1);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.internal.ObjectUtil;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Like {@link AtomicRouter}, holder of the current {@link CompiledHostRouter},
+ * to change hosts or routes while other threads are routing requests.
+ *
+ * <p>Another thread creates a new snapshot with {@link HostRouter#compile()}
+ * and publishes it with {@link #set(CompiledHostRouter)}.
+ */
+public final class AtomicHostRouter<T> {
+    private final AtomicReference<CompiledHostRouter<T>> ref;
+
+    public AtomicHostRouter(CompiledHostRouter<T> hostRouter) {
+        ref = new AtomicReference<CompiledHostRouter<T>>(ObjectUtil.checkNotNull(hostRouter, "hostRouter"));
+    }
+
+    /**
+     * Returns the current snapshot.
+     */
+    public CompiledHostRouter<T> get() {
+        return ref.get();
+    }
+
+    /**
+     * Publishes a new snapshot. Requests being routed with the previous one
+     * are not affected.
+     */
+    public void set(CompiledHostRouter<T> hostRouter) {
+        ref.set(ObjectUtil.checkNotNull(hostRouter, "hostRouter"));
+    }
+
+    /**
+     * Publishes a new snapshot and returns the previous one.
+     */
+    public CompiledHostRouter<T> getAndSet(CompiledHostRouter<T> hostRouter) {
+        return ref.getAndSet(ObjectUtil.checkNotNull(hostRouter, "hostRouter"));
+    }
+
+    /**
+     * Publishes a new snapshot only if the current one is {@code expect}.
+     *
+     * @return {@code false} if the current snapshot is not {@code expect}
+     */
+    public boolean compareAndSet(CompiledHostRouter<T> expect, CompiledHostRouter<T> update) {
+        return ref.compareAndSet(expect, ObjectUtil.checkNotNull(update, "update"));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.internal.ObjectUtil;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holder of the current {@link CompiledRouter}, to change routes while
+ * other threads are routing requests.
+ *
+ * <p>Routing threads call {@link #get()} once per request and use the returned
+ * snapshot for the whole request. Another thread creates a new snapshot
+ * with {@link Router#compile()} and publishes it with {@link #set(CompiledRouter)}.
+ * Because snapshots are immutable, routing threads never see a partially
+ * modified router, and neither side takes a lock.
+ */
+public final class AtomicRouter<T> {
+    private final AtomicReference<CompiledRouter<T>> ref;
+
+    public AtomicRouter(CompiledRouter<T> router) {
+        ref = new AtomicReference<CompiledRouter<T>>(ObjectUtil.checkNotNull(router, "router"));
+    }
+
+    /**
+     * Returns the current snapshot.
+     */
+    public CompiledRouter<T> get() {
+        return ref.get();
+    }
+
+    /**
+     * Publishes a new snapshot. Requests being routed with the previous one
+     * are not affected.
+     */
+    public void set(CompiledRouter<T> router) {
+        ref.set(ObjectUtil.checkNotNull(router, "router"));
+    }
+
+    /**
+     * Publishes a new snapshot and returns the previous one.
+     */
+    public CompiledRouter<T> getAndSet(CompiledRouter<T> router) {
+        return ref.getAndSet(ObjectUtil.checkNotNull(router, "router"));
+    }
+
+    /**
+     * Publishes a new snapshot only if the current one is {@code expect}, for
+     * when several threads modify routes based on the current snapshot.
+     *
+     * @return {@code false} if the current snapshot is not {@code expect}
+     */
+    public boolean compareAndSet(CompiledRouter<T> expect, CompiledRouter<T> update) {
+        return ref.compareAndSet(expect, ObjectUtil.checkNotNull(update, "update"));
+    }
+}
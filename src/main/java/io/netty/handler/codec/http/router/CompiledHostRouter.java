@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a {@link HostRouter}, created by {@link HostRouter#compile()}.
+ * Like {@link CompiledRouter}, it can be used by many threads at the same
+ * time, and published with an {@link AtomicHostRouter} to change hosts or
+ * routes while serving requests.
+ */
+public final class CompiledHostRouter<T> {
+    private final HostTree<CompiledRouter<T>> tree = new HostTree<CompiledRouter<T>>();
+    private final CompiledRouter<T> defaultRouter;
+
+    // For toString, in the order of hosts
+    private final String[] hosts;
+    private final CompiledRouter<T>[] snapshots;
+
+    @SuppressWarnings("unchecked")
+    CompiledHostRouter(Map<String, Router<T>> routers, Router<T> defaultRouter) {
+        snapshots = new CompiledRouter[routers.size()];
+        hosts = new String[routers.size()];
+
+        int i = 0;
+        for (Map.Entry<String, Router<T>> entry : routers.entrySet()) {
+            Router<T> router = entry.getValue();
+            CompiledRouter<T> snapshot = router.compile();
+            tree.add(entry.getKey(), snapshot);
+            snapshots[i] = snapshot;
+            hosts[i] = entry.getKey();
+            i++;
+        }
+
+        this.defaultRouter = (defaultRouter == null) ? null : defaultRouter.compile();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the default router, or {@code null}.
+     */
+    public CompiledRouter<T> defaultRouter() {
+        return defaultRouter;
+    }
+
+    /**
+     * Returns the router of the most specific host pattern matching the host,
+     * or the default router if there's no match.
+     *
+     * @param host like the value of the {@code Host} header: the port and a
+     *             trailing dot are ignored; {@code null} if the request has no host
+     * @return {@code null} if there's no match and no default router
+     */
+    public CompiledRouter<T> router(CharSequence host) {
+        if (host == null) {
+            return defaultRouter;
+        }
+
+        CompiledRouter<T> ret = tree.get(host, hostEnd(host));
+        return (ret == null) ? defaultRouter : ret;
+    }
+
+    // Excludes the port, and the trailing dot of a fully qualified name
+    private static int hostEnd(CharSequence host) {
+        int length = host.length();
+        int ret = length;
+        if (length > 0 && host.charAt(0) == '[') {
+            // IPv6 literal, like [::1]:8080
+            for (int i = 1; i < length; i++) {
+                if (host.charAt(i) == ']') {
+                    ret = i + 1;
+                    break;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (host.charAt(i) == ':') {
+                    ret = i;
+                    break;
+                }
+            }
+        }
+
+        if (ret > 0 && host.charAt(ret - 1) == '.') {
+            ret--;
+        }
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Routes the path with the router of the host, see
+     * {@link CompiledRouter#route(HttpMethod, CharSequence, RouteMatch)}.
+     *
+     * @return {@code false} if there's no router for the host, or the router
+     *         has no match and no {@code notFound} target
+     */
+    public boolean route(CharSequence host, HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        CompiledRouter<T> router = router(host);
+        if (router == null) {
+            match.reset(uri);
+            return false;
+        }
+        return router.route(method, uri, match);
+    }
+
+    /**
+     * Like {@link #route(CharSequence, HttpMethod, CharSequence, RouteMatch)},
+     * with the {@code Host} header of the request.
+     */
+    public boolean route(HttpRequest req, RouteMatch<T> match) {
+        return route(req.headers().get(HttpHeaderNames.HOST), req.method(), req.uri(), match);
+    }
+
+    /**
+     * Like {@link #route(CharSequence, HttpMethod, CharSequence, RouteMatch)},
+     * for an HTTP/2 request, with the {@code :authority} pseudo header, or the
+     * {@code host} header if there's none.
+     *
+     * @see CompiledRouter#route(Http2Headers, RouteMatch)
+     */
+    public boolean route(Http2Headers headers, RouteMatch<T> match) {
+        CharSequence host = headers.authority();
+        if (host == null) {
+            host = headers.get(HttpHeaderNames.HOST);
+        }
+
+        CompiledRouter<T> router = router(host);
+        if (router == null) {
+            match.reset("");
+            return false;
+        }
+        return router.route(headers, match);
+    }
+
+    /**
+     * If there's no match, returns the result with the {@code notFound} target
+     * of the router of the host if it is set, otherwise returns {@code null}.
+     */
+    public RouteResult<T> route(CharSequence host, HttpMethod method, String uri) {
+        RouteMatch<T> match = new RouteMatch<T>();
+        return route(host, method, uri, match) ? match.toRouteResult() : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < hosts.length; i++) {
+            b.append("Host: ").append(hosts[i]).append('\n').append(snapshots[i]);
+        }
+        if (defaultRouter != null) {
+            b.append("Host: (default)\n").append(defaultRouter);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,807 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable snapshot of a {@link Router}, created by {@link Router#compile()}.
+ *
+ * <p>Later changes to the {@link Router} don't affect the snapshot. Because
+ * nothing in it is modified after it has been created, a snapshot can be used
+ * by many threads at the same time without locking. To change routes while
+ * serving requests, modify the {@link Router} in a single thread, compile it
+ * again, and publish the new snapshot with {@link AtomicRouter}.
+ */
+public final class CompiledRouter<T> {
+    // Indexes of STANDARD_METHODS are used by sectionsByMethod, see methodIndex()
+    private static final HttpMethod[] STANDARD_METHODS = {
+        HttpMethod.GET, HttpMethod.POST, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.PATCH,
+        HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.TRACE, HttpMethod.CONNECT
+    };
+
+    // Bit of anyMethodRouter in the allowed methods tree, see allowedMethodsTree
+    static final long ANY_METHOD_BIT = 1L << 63;
+    private static final int MAX_ALLOWED_METHODS_SETS = 1024;
+
+    private final Map<HttpMethod, MethodlessRouter<T>> routers;
+    private final MethodlessRouter<T> anyMethodRouter;
+    private final T notFound;
+    private final int routeCacheSize;
+
+    // null if results are not cached, see Router#routeCache(int)
+    private final RouteCache<T> cache;
+
+    // null if there are no metrics, see Router#metrics(RouteMetrics)
+    private final RouteMetrics metrics;
+    private final Map<PathPattern, RouteStats> statsByPattern;
+
+    // null if not profiling, see Router#profiler(RouteProfiler)
+    private final RouteProfiler profiler;
+
+    // For routing: the non-empty sections to try in order for each method,
+    // including those of anyMethodRouter at the end
+    private final OrderlessRouter<T>[][] sectionsByMethod;
+    private final Map<HttpMethod, OrderlessRouter<T>[]> sectionsByExtensionMethod;
+    private final OrderlessRouter<T>[] anyMethodSections;
+
+    // For allowedMethods: all patterns, with bit masks of their methods at the terminals.
+    // Bit i is methodsByBit[i], ANY_METHOD_BIT is anyMethodRouter.
+    private final FlatRouteTree<Void> allowedMethodsTree;
+    private final HttpMethod[] methodsByBit;
+    private final ConcurrentMap<Long, Set<HttpMethod>> allowedMethodsSets =
+            new ConcurrentHashMap<Long, Set<HttpMethod>>();
+    private final Set<HttpMethod> allAllowedMethods;
+
+    /**
+     * Creates a snapshot owning the routers, which must not be modified
+     * later. The allowed methods tree is built if it is {@code null},
+     * otherwise {@code methodsByBit} gives the methods of its bits.
+     */
+    CompiledRouter(
+            Map<HttpMethod, MethodlessRouter<T>> routers, MethodlessRouter<T> anyMethodRouter,
+            T notFound, int routeCacheSize, RouteMetrics metrics, RouteProfiler profiler,
+            HttpMethod[] methodsByBit, FlatRouteTree<Void> allowedMethodsTree) {
+        this.routers = routers;
+        this.anyMethodRouter = anyMethodRouter;
+        this.notFound = notFound;
+        this.routeCacheSize = routeCacheSize;
+        cache = (routeCacheSize > 0) ? new RouteCache<T>(routeCacheSize) : null;
+
+        this.metrics = metrics;
+        this.profiler = profiler;
+        if (metrics == null) {
+            statsByPattern = null;
+        } else {
+            // Each route has its own PathPattern instance
+            statsByPattern = new IdentityHashMap<PathPattern, RouteStats>();
+            for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+                addStats(entry.getKey().name(), entry.getValue());
+            }
+            addStats("*", anyMethodRouter);
+        }
+
+        anyMethodSections = sections(null);
+        @SuppressWarnings("unchecked")
+        OrderlessRouter<T>[][] byMethod = new OrderlessRouter[STANDARD_METHODS.length][];
+        sectionsByMethod = byMethod;
+        for (int i = 0; i < STANDARD_METHODS.length; i++) {
+            sectionsByMethod[i] = sections(this.routers.get(STANDARD_METHODS[i]));
+        }
+
+        // Standard methods are also here, in case they are not the constant instances
+        sectionsByExtensionMethod = new HashMap<HttpMethod, OrderlessRouter<T>[]>(this.routers.size() * 2);
+        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : this.routers.entrySet()) {
+            sectionsByExtensionMethod.put(entry.getKey(), sections(entry.getValue()));
+        }
+
+        if (allowedMethodsTree == null) {
+            methodsByBit = methodsByBit(routers.keySet());
+            allowedMethodsTree = allowedMethodsTree(routers, anyMethodRouter, methodsByBit);
+        }
+        this.methodsByBit = methodsByBit;
+        this.allowedMethodsTree = allowedMethodsTree;
+
+        if (this.anyMethodRouter.size() > 0) {
+            allAllowedMethods = Collections.unmodifiableSet(new HashSet<HttpMethod>(Arrays.asList(STANDARD_METHODS)));
+        } else {
+            allAllowedMethods = Collections.unmodifiableSet(new HashSet<HttpMethod>(this.routers.keySet()));
+        }
+    }
+
+    /**
+     * Returns a deep copy, for the constructor; empty routers (all routes
+     * have been removed) are skipped.
+     */
+    static <T> Map<HttpMethod, MethodlessRouter<T>> copy(Map<HttpMethod, MethodlessRouter<T>> routers) {
+        Map<HttpMethod, MethodlessRouter<T>> ret = new HashMap<HttpMethod, MethodlessRouter<T>>(routers.size() * 2);
+        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+            MethodlessRouter<T> router = entry.getValue();
+            if (router.size() > 0) {
+                ret.put(entry.getKey(), new MethodlessRouter<T>(router));
+            }
+        }
+        return ret;
+    }
+
+    private void addStats(String method, MethodlessRouter<T> router) {
+        for (OrderlessRouter<T> section : Arrays.asList(router.first(), router.other(), router.last())) {
+            for (PathPattern pattern : section.routes().keySet()) {
+                statsByPattern.put(pattern, metrics.route(method, "/" + pattern.pattern()));
+            }
+        }
+    }
+
+    /**
+     * Returns the methods in the order of their bits in the allowed methods tree.
+     */
+    static HttpMethod[] methodsByBit(Collection<HttpMethod> methods) {
+        if (methods.size() >= 63) {
+            throw new IllegalStateException("Too many HTTP methods: " + methods.size() + " (expected: < 63)");
+        }
+        return methods.toArray(new HttpMethod[methods.size()]);
+    }
+
+    /**
+     * Builds the tree for {@link #allowedMethods(String)}, from routers that
+     * are not modified while building; {@code routers} must have all methods
+     * of {@code methodsByBit}.
+     */
+    static <T> FlatRouteTree<Void> allowedMethodsTree(
+            Map<HttpMethod, MethodlessRouter<T>> routers, MethodlessRouter<T> anyMethodRouter,
+            HttpMethod[] methodsByBit) {
+        RouteTree<Void> tree = new RouteTree<Void>();
+        for (int i = 0; i < methodsByBit.length; i++) {
+            addMethods(tree, routers.get(methodsByBit[i]), 1L << i);
+        }
+        addMethods(tree, anyMethodRouter, ANY_METHOD_BIT);
+        return new FlatRouteTree<Void>(tree);
+    }
+
+    private static <T> void addMethods(RouteTree<Void> tree, MethodlessRouter<T> router, long methods) {
+        addMethods(tree, router.first(), methods);
+        addMethods(tree, router.other(), methods);
+        addMethods(tree, router.last(), methods);
+    }
+
+    private static <T> void addMethods(RouteTree<Void> tree, OrderlessRouter<T> section, long methods) {
+        for (PathPattern pattern : section.routes().keySet()) {
+            tree.addMethods(pattern, methods);
+        }
+    }
+
+    /**
+     * Returns the non-empty sections of the router, then those of anyMethodRouter.
+     */
+    private OrderlessRouter<T>[] sections(MethodlessRouter<T> router) {
+        List<OrderlessRouter<T>> ret = new ArrayList<OrderlessRouter<T>>(6);
+        if (router != null) {
+            addIfNotEmpty(ret, router.first());
+            addIfNotEmpty(ret, router.other());
+            addIfNotEmpty(ret, router.last());
+        }
+        addIfNotEmpty(ret, anyMethodRouter.first());
+        addIfNotEmpty(ret, anyMethodRouter.other());
+        addIfNotEmpty(ret, anyMethodRouter.last());
+        @SuppressWarnings("unchecked")
+        OrderlessRouter<T>[] array = new OrderlessRouter[ret.size()];
+        return ret.toArray(array);
+    }
+
+    private static <T> void addIfNotEmpty(List<OrderlessRouter<T>> sections, OrderlessRouter<T> section) {
+        if (!section.routes().isEmpty()) {
+            sections.add(section);
+        }
+    }
+
+    /**
+     * Returns the index in {@link #STANDARD_METHODS}, or -1 if not found.
+     * Compares by identity to avoid {@link HttpMethod#hashCode()} and
+     * {@link HttpMethod#equals(Object)}, because HTTP decoders use the
+     * constant instances for standard methods.
+     */
+    private static int methodIndex(HttpMethod method) {
+        for (int i = 0; i < STANDARD_METHODS.length; i++) {
+            if (STANDARD_METHODS[i] == method) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private OrderlessRouter<T>[] sectionsForMethod(HttpMethod method) {
+        int index = methodIndex(method);
+        if (index >= 0) {
+            return sectionsByMethod[index];
+        }
+
+        if (method == null) {
+            return anyMethodSections;
+        }
+
+        OrderlessRouter<T>[] ret = sectionsByExtensionMethod.get(method);
+        return (ret == null) ? anyMethodSections : ret;
+    }
+
+    /**
+     * Returns the fallback target for use when there's no match at
+     * {@link #route(HttpMethod, String)}.
+     */
+    public T notFound() {
+        return notFound;
+    }
+
+    /**
+     * Returns the number of routes in this router.
+     */
+    public int size() {
+        int ret = anyMethodRouter.size();
+
+        for (MethodlessRouter<T> router : routers.values()) {
+            ret += router.size();
+        }
+
+        return ret;
+    }
+
+    // For RouteIndex, which writes all of these to a file
+
+    Map<HttpMethod, MethodlessRouter<T>> routers() {
+        return routers;
+    }
+
+    MethodlessRouter<T> anyMethodRouter() {
+        return anyMethodRouter;
+    }
+
+    int routeCacheSize() {
+        return routeCacheSize;
+    }
+
+    HttpMethod[] methodsByBit() {
+        return methodsByBit;
+    }
+
+    FlatRouteTree<Void> allowedMethodsTree() {
+        return allowedMethodsTree;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * If there's no match, returns the result with {@link #notFound() notFound}
+     * as the target if it is set, otherwise returns {@code null}.
+     */
+    public RouteResult<T> route(HttpMethod method, String uri) {
+        RouteMatch<T> match = new RouteMatch<T>();
+        return route(method, uri, match) ? match.toRouteResult() : null;
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, String)}, but writes the result to {@code match}
+     * instead of creating a new {@link RouteResult}. The query part of the URI is
+     * not decoded until it is accessed from {@code match}.
+     *
+     * <p>{@code match} can be reused for many requests, to avoid allocating
+     * a result and a map of path params for each request.
+     *
+     * <p>The URI doesn't have to be a {@link String}: an {@link AsciiString} is
+     * matched without converting it. Only captured path params are converted
+     * to strings, and the whole URI only if {@link RouteMatch#uri()} or
+     * query params are accessed.
+     *
+     * @return {@code false} if there's no match and {@link #notFound() notFound}
+     * is not set; in this case {@code match} has {@code null} as the target
+     */
+    public boolean route(HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        if (metrics == null) {
+            return routeCached(method, uri, match);
+        }
+
+        long start = System.nanoTime();
+        boolean ret = routeCached(method, uri, match);
+        metrics.recordRouting(System.nanoTime() - start);
+
+        RouteStats stats = (match.pattern == null) ? null : statsByPattern.get(match.pattern);
+        if (stats == null) {
+            metrics.recordNotFound();
+        } else {
+            stats.count.increment();
+            match.stats = stats;
+        }
+        return ret;
+    }
+
+    private boolean routeCached(HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        if (profiler != null && profiler.sample()) {
+            return routeProfiled(method, uri, match);
+        }
+
+        if (cache == null) {
+            return routeUncached(method, uri, match);
+        }
+
+        int pathEnd = RouteCache.pathEnd(uri);
+        int hash = RouteCache.hash(method, uri, pathEnd);
+        match.reset(uri);
+        Boolean cached = cache.get(hash, method, uri, pathEnd, match);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean ret = routeUncached(method, uri, match);
+        cache.put(hash, method, uri, pathEnd, match, ret);
+        return ret;
+    }
+
+    private boolean routeUncached(HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        OrderlessRouter<T>[] sections = sectionsForMethod(method);
+
+        PathTokens tokens = match.pathTokens;
+        tokens.tokenize(uri);
+        match.reset(uri);
+
+        for (OrderlessRouter<T> section : sections) {
+            if (section.route(tokens, match)) {
+                return true;
+            }
+        }
+
+        if (notFound != null) {
+            match.target(notFound);
+            return true;
+        }
+
+        return false;
+    }
+
+    // Like routeUncached, counting the work done for the profiler
+    private boolean routeProfiled(HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        long start = System.nanoTime();
+        RouteProfile profile = new RouteProfile();
+        OrderlessRouter<T>[] sections = sectionsForMethod(method);
+
+        PathTokens tokens = match.pathTokens;
+        tokens.tokenize(uri);
+        match.reset(uri);
+
+        boolean matched = false;
+        for (OrderlessRouter<T> section : sections) {
+            profile.sectionsTried++;
+            if (section.route(tokens, match, profile)) {
+                matched = true;
+                break;
+            }
+        }
+
+        profiler.record(method, match.pattern, profile, System.nanoTime() - start);
+        if (matched) {
+            return true;
+        }
+
+        if (notFound != null) {
+            match.target(notFound);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, with the URI
+     * given as the readable bytes of a buffer, like a slice of the request line.
+     * The bytes are read in place, without copying.
+     *
+     * <p>The buffer is not retained, and must not be released or modified
+     * while {@code match} is being used.
+     */
+    public boolean route(HttpMethod method, ByteBuf uri, RouteMatch<T> match) {
+        return route(method, new AsciiByteBufSequence(uri), match);
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, with the method
+     * and the URI taken from the {@code :method} and {@code :path} pseudo-headers
+     * of an HTTP/2 request, without converting the headers to an HTTP/1.1 request.
+     * The path is matched as the {@link AsciiString} of the header.
+     *
+     * <p>A request without {@code :method} or {@code :path}, like {@code CONNECT},
+     * is not matched, but gets the {@link #notFound() notFound} target if set.
+     */
+    public boolean route(Http2Headers headers, RouteMatch<T> match) {
+        CharSequence methodName = headers.method();
+        CharSequence path = headers.path();
+        if (methodName == null || path == null) {
+            match.reset("");
+            if (metrics != null) {
+                metrics.recordNotFound();
+            }
+            if (notFound != null) {
+                match.target(notFound);
+                return true;
+            }
+            return false;
+        }
+
+        return route(httpMethod(methodName), path, match);
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, String)}, for an HTTP/2 request.
+     *
+     * @see #route(Http2Headers, RouteMatch)
+     */
+    public RouteResult<T> route(Http2Headers headers) {
+        RouteMatch<T> match = new RouteMatch<T>();
+        return route(headers, match) ? match.toRouteResult() : null;
+    }
+
+    // Standard methods are returned without creating a string from the header
+    private static HttpMethod httpMethod(CharSequence name) {
+        for (HttpMethod method : STANDARD_METHODS) {
+            if (AsciiString.contentEquals(method.asciiName(), name)) {
+                return method;
+            }
+        }
+        return HttpMethod.valueOf(name.toString());
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, with a {@link RouteMatch}
+     * owned by the current thread and shared by all routers. Netty event loop
+     * threads keep it in a {@link FastThreadLocal}.
+     *
+     * <p>The returned instance is reused by the next call from the same thread,
+     * so it must not be kept after the request has been handled. Use
+     * {@link RouteMatch#toRouteResult()} to keep a copy.
+     *
+     * @return {@code null} if there's no match and {@link #notFound() notFound}
+     * is not set
+     */
+    public RouteMatch<T> routeMatch(HttpMethod method, CharSequence uri) {
+        RouteMatch<T> match = RouteMatch.threadLocal();
+        return route(method, uri, match) ? match : null;
+    }
+
+    //--------------------------------------------------------------------------
+    // Batch routing, for the requests of a read burst.
+
+    // Per batch index, see routeAll
+    private static final class BatchScratch {
+        int[] hashes = new int[16];
+        RouteStats[] stats = new RouteStats[16];
+
+        void ensureCapacity(int count) {
+            if (hashes.length < count) {
+                int newCapacity = Math.max(count, hashes.length * 2);
+                hashes = new int[newCapacity];
+                stats = new RouteStats[newCapacity];
+            }
+        }
+    }
+
+    private static final FastThreadLocal<BatchScratch> BATCH_SCRATCH = new FastThreadLocal<BatchScratch>() {
+        @Override
+        protected BatchScratch initialValue() {
+            return new BatchScratch();
+        }
+    };
+
+    /**
+     * Like {@link #routeAll(HttpMethod[], CharSequence[], RouteResult[], int)},
+     * for all elements of {@code uris}.
+     */
+    public int routeAll(HttpMethod[] methods, CharSequence[] uris, RouteResult<T>[] results) {
+        return routeAll(methods, uris, results, uris.length);
+    }
+
+    /**
+     * Routes the first {@code count} requests of a batch, like the requests
+     * pipelined on an HTTP/1.1 connection or multiplexed on an HTTP/2
+     * connection and read in one burst. {@code results[i]} is set to the
+     * result of {@code methods[i]} and {@code uris[i]}, like
+     * {@link #route(HttpMethod, String)} would return it.
+     *
+     * <p>All requests are routed with the same path tokenizer and match
+     * buffers of the current thread, one after the other. A request with the
+     * same method and URI as an earlier request of the batch is not routed
+     * again: it gets the same (immutable) {@link RouteResult} instance.
+     * Duplicates are found by comparing hash codes with all earlier requests,
+     * which is cheap for the sizes of read bursts (up to a few hundreds).
+     *
+     * <p>The arrays can be reused for the next batch.
+     *
+     * @return the number of results that are not {@code null}
+     */
+    public int routeAll(HttpMethod[] methods, CharSequence[] uris, RouteResult<T>[] results, int count) {
+        if (count < 0 || count > methods.length || count > uris.length || count > results.length) {
+            throw new IllegalArgumentException(
+                    "count: " + count + " (expected: 0 <= count <= length of methods, uris and results)");
+        }
+
+        BatchScratch scratch = BATCH_SCRATCH.get();
+        scratch.ensureCapacity(count);
+        int[] hashes = scratch.hashes;
+        RouteStats[] stats = scratch.stats;
+        RouteMatch<T> match = RouteMatch.threadLocal();
+
+        int ret = 0;
+        for (int i = 0; i < count; i++) {
+            HttpMethod method = methods[i];
+            CharSequence uri = uris[i];
+            int hash = RouteCache.hash(method, uri, uri.length());
+            hashes[i] = hash;
+
+            int duplicate = -1;
+            for (int j = 0; j < i; j++) {
+                if (hashes[j] == hash && (methods[j] == method || (method != null && method.equals(methods[j]))) &&
+                        AsciiString.contentEquals(uris[j], uri)) {
+                    duplicate = j;
+                    break;
+                }
+            }
+
+            RouteResult<T> result;
+            if (duplicate < 0) {
+                result = route(method, uri, match) ? match.toRouteResult() : null;
+                stats[i] = match.stats;
+            } else {
+                // Counted like a routed request, but no routing time is recorded
+                result = results[duplicate];
+                stats[i] = stats[duplicate];
+                if (metrics != null) {
+                    if (stats[i] == null) {
+                        metrics.recordNotFound();
+                    } else {
+                        stats[i].count.increment();
+                    }
+                }
+            }
+
+            results[i] = result;
+            if (result != null) {
+                ret++;
+            }
+        }
+
+        // Release references to the stats and the last match
+        Arrays.fill(stats, 0, count, null);
+        match.reset("");
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+    // For implementing OPTIONS and CORS.
+
+    /**
+     * Returns allowed methods for a specific URI.
+     * <p>
+     * For {@code OPTIONS *}, use {@link #allAllowedMethods()} instead of this method.
+     *
+     * @return Unmodifiable set, shared by all URIs with the same allowed methods
+     */
+    public Set<HttpMethod> allowedMethods(String uri) {
+        PathTokens tokens = PathTokens.threadLocal();
+        tokens.tokenize(uri);
+
+        long methods = allowedMethodsTree.methods(tokens);
+        if ((methods & ANY_METHOD_BIT) != 0) {
+            return allAllowedMethods;
+        }
+
+        if (methods == 0) {
+            return Collections.emptySet();
+        }
+
+        Set<HttpMethod> ret = allowedMethodsSets.get(methods);
+        if (ret == null) {
+            ret = Collections.unmodifiableSet(methodsOf(methods));
+
+            // The number of different sets is limited by the route table,
+            // but bound it anyway
+            if (allowedMethodsSets.size() < MAX_ALLOWED_METHODS_SETS) {
+                allowedMethodsSets.put(methods, ret);
+            }
+        }
+        return ret;
+    }
+
+    private Set<HttpMethod> methodsOf(long methods) {
+        Set<HttpMethod> ret = new HashSet<HttpMethod>();
+        for (int i = 0; i < methodsByBit.length; i++) {
+            if ((methods & (1L << i)) != 0) {
+                ret.add(methodsByBit[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns all methods that this router handles. For {@code OPTIONS *}.
+     *
+     * @return Unmodifiable set
+     */
+    public Set<HttpMethod> allAllowedMethods() {
+        return allAllowedMethods;
+    }
+
+    //--------------------------------------------------------------------------
+    // Reverse routing.
+
+    /**
+     * Given a target and params, this method tries to do the reverse routing
+     * and returns the URI.
+     *
+     * <p>Placeholders in the path pattern will be filled with the params.
+     * The params can be a map of {@code placeholder name -> value}
+     * or ordered values.
+     *
+     * <p>If a param doesn't have a corresponding placeholder, it will be put
+     * to the query part of the result URI.
+     *
+     * @return {@code null} if there's no match
+     */
+    public String uri(HttpMethod method, T target, Object... params) {
+        MethodlessRouter<T> router = (method == null) ? anyMethodRouter : routers.get(method);
+
+        // Fallback to anyMethodRouter if no router is found for the method
+        if (router == null) {
+            router = anyMethodRouter;
+        }
+
+        String ret = router.uri(target, params);
+        if (ret != null) {
+            return ret;
+        }
+
+        // Fallback to anyMethodRouter if the router was not anyMethodRouter and no path is found
+        return (router != anyMethodRouter) ? anyMethodRouter.uri(target, params) : null;
+    }
+
+    /**
+     * Given a target and params, this method tries to do the reverse routing
+     * and returns the URI.
+     *
+     * <p>Placeholders in the path pattern will be filled with the params.
+     * The params can be a map of {@code placeholder name -> value}
+     * or ordered values.
+     *
+     * <p>If a param doesn't have a corresponding placeholder, it will be put
+     * to the query part of the result URI.
+     *
+     * @return {@code null} if there's no match
+     */
+    public String uri(T target, Object... params) {
+        Collection<MethodlessRouter<T>> rs = routers.values();
+        for (MethodlessRouter<T> r : rs) {
+            String ret = r.uri(target, params);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return anyMethodRouter.uri(target, params);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns visualized routing rules.
+     */
+    @Override
+    public String toString() {
+        // Step 1/2: Dump routers and anyMethodRouter in order
+        int numRoutes = size();
+        List<String> methods = new ArrayList<String>(numRoutes);
+        List<String> patterns = new ArrayList<String>(numRoutes);
+        List<String> targets = new ArrayList<String>(numRoutes);
+
+        // For router
+        for (Entry<HttpMethod, MethodlessRouter<T>> e : routers.entrySet()) {
+            HttpMethod method = e.getKey();
+            MethodlessRouter<T> router = e.getValue();
+            aggregateRoutes(method.toString(), router.first().routes(), methods, patterns, targets);
+            aggregateRoutes(method.toString(), router.other().routes(), methods, patterns, targets);
+            aggregateRoutes(method.toString(), router.last().routes(), methods, patterns, targets);
+        }
+
+        // For anyMethodRouter
+        aggregateRoutes("*", anyMethodRouter.first().routes(), methods, patterns, targets);
+        aggregateRoutes("*", anyMethodRouter.other().routes(), methods, patterns, targets);
+        aggregateRoutes("*", anyMethodRouter.last().routes(), methods, patterns, targets);
+
+        // For notFound
+        if (notFound != null) {
+            methods.add("*");
+            patterns.add("*");
+            targets.add(targetToString(notFound));
+        }
+
+        // Step 2/2: Format the List into aligned columns: <method> <patterns> <target>
+        int maxLengthMethod = maxLength(methods);
+        int maxLengthPattern = maxLength(patterns);
+        String format = "%-" + maxLengthMethod + "s  %-" + maxLengthPattern + "s  %s\n";
+        int initialCapacity = (maxLengthMethod + 1 + maxLengthPattern + 1 + 20) * methods.size();
+        StringBuilder b = new StringBuilder(initialCapacity);
+        for (int i = 0; i < methods.size(); i++) {
+            String method = methods.get(i);
+            String pattern = patterns.get(i);
+            String target = targets.get(i);
+            b.append(String.format(format, method, pattern, target));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Helper for toString.
+     */
+    private static <T> void aggregateRoutes(
+            String method, Map<PathPattern, T> routes,
+            List<String> accMethods, List<String> accPatterns, List<String> accTargets) {
+        for (Map.Entry<PathPattern, T> entry : routes.entrySet()) {
+            accMethods.add(method);
+            accPatterns.add("/" + entry.getKey().pattern());
+            accTargets.add(targetToString(entry.getValue()));
+        }
+    }
+
+    /**
+     * Helper for toString.
+     */
+    private static int maxLength(List<String> coll) {
+        int max = 0;
+        for (String e : coll) {
+            int length = e.length();
+            if (length > max) {
+                max = length;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Helper for toString.
+     *
+     * <p>For example, returns
+     * "io.netty.example.http.router.HttpRouterServerHandler" instead of
+     * "class io.netty.example.http.router.HttpRouterServerHandler"
+     */
+    private static String targetToString(Object target) {
+        if (target instanceof Class) {
+            return ((Class<?>) target).getName();
+        } else {
+            return target.toString();
+        }
+    }
+
+}
@@ -0,0 +1,934 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of a {@link RouteTree} in a few flat arrays, used for
+ * matching in {@link CompiledRouter} snapshots. Matching gives the same
+ * results as the tree it was built from; see {@link RouteTree} for the order
+ * in which branches are tried.
+ *
+ * <p>With many routes, a tree of node objects, each with its own hash table
+ * arrays and token strings, costs a lot of heap and GC scanning time. Here:
+ * <ul>
+ * <li>nodes are records of {@link #NODE_SIZE} ints in one {@code int[]},
+ *     numbered depth first so that a walk reads nearby memory,</li>
+ * <li>the hash tables of static children of all nodes are slices of two
+ *     shared {@code int[]} (segment and child),</li>
+ * <li>constant tokens are stored once per distinct value, as slices of one
+ *     {@code char[]}, with their hash codes in an {@code int[]}; request
+ *     tokens are compared to them directly, see {@link PathTokens}.</li>
+ * </ul>
+ * The only object arrays are the constraints, and the patterns and targets
+ * of terminals.
+ *
+ * <p>The arrays are never modified. Adding or removing a route with
+ * {@link #add(PathPattern, Object)} or {@link #remove(PathPattern)} returns a
+ * new tree sharing the arrays of this one: removed patterns are skipped by
+ * the walk, and added ones are indexed in a small tree of their own, matched
+ * after this one. When such changes pile up, the tree is built again from
+ * all routes instead.
+ */
+final class FlatRouteTree<T> {
+    // Fields of a node record; a node is referred to by the index of its record
+    private static final int STATIC_BASE      = 0;  // First slot of the static children hash table
+    private static final int STATIC_MASK      = 1;  // Capacity - 1, or -1 if there are no static children
+    private static final int CONSTRAINED_BASE = 2;  // First index in constraints and constrainedChildren
+    private static final int NUM_CONSTRAINED  = 3;
+    private static final int PARAM            = 4;  // The param child, or -1
+    private static final int TERMINAL         = 5;  // Index in patterns and targets, or -1
+    private static final int CATCH_ALL        = 6;  // Same, for ":*" right after this node
+    private static final int NODE_SIZE        = 7;
+
+    private static final int ROOT = 0;
+
+    // Changes kept before building again, see withChanges()
+    private static final int MAX_CHANGES = 256;
+
+    private static final int[] EMPTY_INTS = new int[0];
+    private static final long[] EMPTY_LONGS = new long[0];
+    private static final PathPattern[] EMPTY_PATTERNS = new PathPattern[0];
+    private static final Object[] EMPTY_OBJECTS = new Object[0];
+
+    // Package private for RouteIndex, which writes and reads these arrays
+    final int[] nodes;
+
+    // Slot i: the segment (-1 if empty) and the child node
+    final int[] slotSegments;
+    final int[] slotChildren;
+
+    // Segment i is segmentChars[segmentOffsets[i] .. segmentOffsets[i + 1])
+    final char[] segmentChars;
+    final int[] segmentOffsets;
+    final int[] segmentHashes;
+
+    final ParamConstraint[] constraints;
+    final int[] constrainedChildren;
+
+    final PathPattern[] patterns;
+    final Object[] targets;
+
+    // By terminal index, see RouteTree#addMethods; null if there are no methods
+    final long[] methods;
+
+    // Routes added or removed since the arrays were built, null if none
+    private final Changes<T> changes;
+
+    // Number of terminals with a pattern, minus removed, plus added ones
+    private final int numPatterns;
+
+    // Each change creates new arrays instead of modifying these
+    private static final class Changes<T> {
+        // Sorted terminals; in trees of methods, the bits cleared at removed[i] are removedMethods[i]
+        final int[] removed;
+        final long[] removedMethods;
+
+        // In the order they were added; in trees of methods, the bits of
+        // addedPatterns[i] are addedMethods[i], otherwise its target is addedTargets[i]
+        final PathPattern[] addedPatterns;
+        final Object[] addedTargets;
+        final long[] addedMethods;
+
+        // Built from the above, null if there are no added patterns
+        final FlatRouteTree<T> added;
+
+        @SuppressWarnings("unchecked")
+        Changes(int[] removed, long[] removedMethods,
+                PathPattern[] addedPatterns, Object[] addedTargets, long[] addedMethods) {
+            this.removed = removed;
+            this.removedMethods = removedMethods;
+            this.addedPatterns = addedPatterns;
+            this.addedTargets = addedTargets;
+            this.addedMethods = addedMethods;
+
+            if (addedPatterns.length == 0) {
+                added = null;
+            } else {
+                RouteTree<T> tree = new RouteTree<T>();
+                for (int i = 0; i < addedPatterns.length; i++) {
+                    if (addedMethods == null) {
+                        tree.add(addedPatterns[i], (T) addedTargets[i]);
+                    } else {
+                        tree.addMethods(addedPatterns[i], addedMethods[i]);
+                    }
+                }
+                added = new FlatRouteTree<T>(tree);
+            }
+        }
+
+        int indexOfRemoved(int terminal) {
+            return Arrays.binarySearch(removed, terminal);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    // Arrays are first filled as lists, then trimmed
+    private static final class Builder {
+        int[] nodes = new int[NODE_SIZE * 16];
+        int nodesSize;
+
+        int[] slotSegments = new int[16];
+        int[] slotChildren = new int[16];
+        int slotsSize;
+
+        final Map<String, Integer> segmentIndexes = new HashMap<String, Integer>();
+        final StringBuilder segmentChars = new StringBuilder();
+        final List<Integer> segmentOffsets = new ArrayList<Integer>();
+
+        final List<ParamConstraint> constraints = new ArrayList<ParamConstraint>();
+        final List<Integer> constrainedChildren = new ArrayList<Integer>();
+
+        final List<PathPattern> patterns = new ArrayList<PathPattern>();
+        final List<Object> targets = new ArrayList<Object>();
+        final List<Long> methods = new ArrayList<Long>();
+        boolean hasMethods;
+
+        int allocateNode() {
+            if (nodesSize + NODE_SIZE > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            int ret = nodesSize;
+            nodesSize += NODE_SIZE;
+            return ret;
+        }
+
+        int allocateSlots(int capacity) {
+            while (slotsSize + capacity > slotSegments.length) {
+                slotSegments = Arrays.copyOf(slotSegments, slotSegments.length * 2);
+                slotChildren = Arrays.copyOf(slotChildren, slotChildren.length * 2);
+            }
+            int ret = slotsSize;
+            for (int i = ret; i < ret + capacity; i++) {
+                slotSegments[i] = -1;
+            }
+            slotsSize += capacity;
+            return ret;
+        }
+
+        int segment(String token) {
+            Integer ret = segmentIndexes.get(token);
+            if (ret == null) {
+                ret = segmentOffsets.size();
+                segmentIndexes.put(token, ret);
+                segmentOffsets.add(segmentChars.length());
+                segmentChars.append(token);
+            }
+            return ret;
+        }
+
+        int terminal(PathPattern pattern, Object target, long methods) {
+            if (pattern == null && methods == 0) {
+                return -1;
+            }
+            patterns.add(pattern);
+            targets.add(target);
+            this.methods.add(methods);
+            hasMethods |= methods != 0;
+            return patterns.size() - 1;
+        }
+    }
+
+    FlatRouteTree(RouteTree<T> tree) {
+        Builder b = new Builder();
+        add(b, tree.root());
+
+        nodes = Arrays.copyOf(b.nodes, b.nodesSize);
+        slotSegments = Arrays.copyOf(b.slotSegments, b.slotsSize);
+        slotChildren = Arrays.copyOf(b.slotChildren, b.slotsSize);
+
+        int numSegments = b.segmentOffsets.size();
+        segmentChars = new char[b.segmentChars.length()];
+        b.segmentChars.getChars(0, segmentChars.length, segmentChars, 0);
+        segmentOffsets = new int[numSegments + 1];
+        segmentHashes = new int[numSegments];
+        for (Map.Entry<String, Integer> entry : b.segmentIndexes.entrySet()) {
+            int i = entry.getValue();
+            segmentOffsets[i] = b.segmentOffsets.get(i);
+            segmentHashes[i] = entry.getKey().hashCode();
+        }
+        segmentOffsets[numSegments] = segmentChars.length;
+
+        constraints = b.constraints.toArray(new ParamConstraint[b.constraints.size()]);
+        constrainedChildren = new int[b.constrainedChildren.size()];
+        for (int i = 0; i < constrainedChildren.length; i++) {
+            constrainedChildren[i] = b.constrainedChildren.get(i);
+        }
+
+        patterns = b.patterns.toArray(new PathPattern[b.patterns.size()]);
+        targets = b.targets.toArray();
+        if (b.hasMethods) {
+            methods = new long[b.methods.size()];
+            for (int i = 0; i < methods.length; i++) {
+                methods[i] = b.methods.get(i);
+            }
+        } else {
+            methods = null;
+        }
+
+        changes = null;
+        numPatterns = countPatterns(patterns);
+    }
+
+    /**
+     * Creates a tree from arrays read by {@link RouteIndex}.
+     */
+    FlatRouteTree(int[] nodes, int[] slotSegments, int[] slotChildren,
+                  char[] segmentChars, int[] segmentOffsets, int[] segmentHashes,
+                  ParamConstraint[] constraints, int[] constrainedChildren,
+                  PathPattern[] patterns, Object[] targets, long[] methods) {
+        this.nodes = nodes;
+        this.slotSegments = slotSegments;
+        this.slotChildren = slotChildren;
+        this.segmentChars = segmentChars;
+        this.segmentOffsets = segmentOffsets;
+        this.segmentHashes = segmentHashes;
+        this.constraints = constraints;
+        this.constrainedChildren = constrainedChildren;
+        this.patterns = patterns;
+        this.targets = targets;
+        this.methods = methods;
+
+        changes = null;
+        numPatterns = countPatterns(patterns);
+    }
+
+    // Shares the arrays of the tree
+    private FlatRouteTree(FlatRouteTree<T> tree, Changes<T> changes, int numPatterns) {
+        nodes = tree.nodes;
+        slotSegments = tree.slotSegments;
+        slotChildren = tree.slotChildren;
+        segmentChars = tree.segmentChars;
+        segmentOffsets = tree.segmentOffsets;
+        segmentHashes = tree.segmentHashes;
+        constraints = tree.constraints;
+        constrainedChildren = tree.constrainedChildren;
+        patterns = tree.patterns;
+        targets = tree.targets;
+        methods = tree.methods;
+
+        this.changes = changes;
+        this.numPatterns = numPatterns;
+    }
+
+    private static int countPatterns(PathPattern[] patterns) {
+        int ret = 0;
+        for (PathPattern pattern : patterns) {
+            if (pattern != null) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    // Depth first, so that the node is allocated before its children
+    private static <T> int add(Builder b, RouteTree.Node<T> node) {
+        int ret = b.allocateNode();
+        b.nodes[ret + TERMINAL] = b.terminal(node.pattern, node.target, node.methods);
+        b.nodes[ret + CATCH_ALL] = b.terminal(node.catchAllPattern, node.catchAllTarget, node.catchAllMethods);
+
+        if (node.numStatics == 0) {
+            b.nodes[ret + STATIC_MASK] = -1;
+        } else {
+            // Same capacity as in the tree: a power of 2, at most half full
+            int capacity = node.staticTokens.length;
+            int base = b.allocateSlots(capacity);
+            b.nodes[ret + STATIC_BASE] = base;
+            b.nodes[ret + STATIC_MASK] = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                String token = node.staticTokens[i];
+                if (token != null) {
+                    int child = add(b, node.staticNodes[i]);
+                    int slot = base + (spread(node.staticHashes[i]) & (capacity - 1));
+                    while (b.slotSegments[slot] >= 0) {
+                        slot = base + ((slot - base + 1) & (capacity - 1));
+                    }
+                    b.slotSegments[slot] = b.segment(token);
+                    b.slotChildren[slot] = child;
+                }
+            }
+        }
+
+        if (node.constraints == null) {
+            b.nodes[ret + NUM_CONSTRAINED] = 0;
+        } else {
+            // Reserved before adding the children, which may have constraints too
+            int base = b.constraints.size();
+            int n = node.constraints.length;
+            for (int i = 0; i < n; i++) {
+                b.constraints.add(node.constraints[i]);
+                b.constrainedChildren.add(-1);
+            }
+            b.nodes[ret + CONSTRAINED_BASE] = base;
+            b.nodes[ret + NUM_CONSTRAINED] = n;
+            for (int i = 0; i < n; i++) {
+                b.constrainedChildren.set(base + i, add(b, node.constrainedParams[i]));
+            }
+        }
+
+        // Not assigned directly: b.nodes may be replaced while adding
+        int param = (node.param == null) ? -1 : add(b, node.param);
+        b.nodes[ret + PARAM] = param;
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the number of distinct constant tokens, for tests.
+     */
+    int numSegments() {
+        return segmentHashes.length;
+    }
+
+    /**
+     * Returns the number of patterns that can be matched. It is less than the
+     * number of routes the tree was built from if some patterns were hidden by
+     * others with the same shape, see {@link RouteTree}.
+     */
+    int numPatterns() {
+        return numPatterns;
+    }
+
+    /**
+     * Checks if routes have been added or removed since the arrays were built.
+     */
+    boolean hasChanges() {
+        return changes != null;
+    }
+
+    private int staticChild(int node, PathTokens tokens, int index) {
+        int mask = nodes[node + STATIC_MASK];
+        if (mask < 0) {
+            return -1;
+        }
+
+        int base = nodes[node + STATIC_BASE];
+        int hash = tokens.hashCode(index);
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            int segment = slotSegments[base + i];
+            if (segment < 0) {
+                return -1;
+            }
+
+            int offset = segmentOffsets[segment];
+            if (segmentHashes[segment] == hash &&
+                    tokens.equals(index, segmentChars, offset, segmentOffsets[segment + 1] - offset)) {
+                return slotChildren[base + i];
+            }
+        }
+    }
+
+    // Same, for a constant token of a pattern
+    private int staticChild(int node, String token, int hash) {
+        int mask = nodes[node + STATIC_MASK];
+        if (mask < 0) {
+            return -1;
+        }
+
+        int base = nodes[node + STATIC_BASE];
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            int segment = slotSegments[base + i];
+            if (segment < 0) {
+                return -1;
+            }
+
+            if (segmentHashes[segment] == hash && segmentEquals(segment, token)) {
+                return slotChildren[base + i];
+            }
+        }
+    }
+
+    private boolean segmentEquals(int segment, String token) {
+        int offset = segmentOffsets[segment];
+        int length = segmentOffsets[segment + 1] - offset;
+        if (length != token.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (segmentChars[offset + i] != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int constrainedChild(int node, ParamConstraint constraint) {
+        int base = nodes[node + CONSTRAINED_BASE];
+        for (int i = base; i < base + nodes[node + NUM_CONSTRAINED]; i++) {
+            if (constraints[i].spec.equals(constraint.spec)) {
+                return constrainedChildren[i];
+            }
+        }
+        return -1;
+    }
+
+    // String hash codes of similar tokens often differ only in high bits, same as RouteTree
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the terminal of the shape of the pattern (see {@link RouteTree}),
+     * or -1 if there's none, without looking at changes.
+     */
+    private int terminal(PathPattern pathPattern) {
+        String[] tokens = pathPattern.tokens();
+        boolean catchAll = pathPattern.isCatchAll();
+        int numNodeTokens = catchAll ? tokens.length - 1 : tokens.length;
+        int node = ROOT;
+        for (int i = 0; i < numNodeTokens; i++) {
+            if (pathPattern.kind(i) == PathPattern.PARAM) {
+                ParamConstraint constraint = pathPattern.constraint(i);
+                node = (constraint == null) ? nodes[node + PARAM] : constrainedChild(node, constraint);
+            } else {
+                node = staticChild(node, tokens[i], pathPattern.staticHash(i));
+            }
+
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return nodes[node + (catchAll ? CATCH_ALL : TERMINAL)];
+    }
+
+    private boolean hasPattern(int terminal) {
+        return terminal >= 0 && patterns[terminal] != null &&
+                (changes == null || changes.indexOfRemoved(terminal) < 0);
+    }
+
+    /**
+     * Returns the matched pattern with the same shape as the given one, or
+     * {@code null} if there's none.
+     */
+    PathPattern patternWithShape(PathPattern pathPattern) {
+        int terminal = terminal(pathPattern);
+        if (hasPattern(terminal)) {
+            return patterns[terminal];
+        }
+        return (changes == null || changes.added == null) ? null : changes.added.patternWithShape(pathPattern);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * {@code match} will be updated with the target and params embedded in the request path.
+     *
+     * @return {@code false} if not matched; in this case {@code match} is not modified
+     */
+    public boolean route(PathTokens requestPathTokens, RouteMatch<T> match) {
+        return matched(route(ROOT, requestPathTokens, 0), requestPathTokens, match, null);
+    }
+
+    // Returns the terminal of the first matching pattern, or -1
+    private int route(int node, PathTokens requestPathTokens, int depth) {
+        if (depth == requestPathTokens.size()) {
+            int terminal = nodes[node + TERMINAL];
+            return hasPattern(terminal) ? terminal : -1;
+        }
+
+        int child = staticChild(node, requestPathTokens, depth);
+        if (child >= 0) {
+            int ret = route(child, requestPathTokens, depth + 1);
+            if (ret >= 0) {
+                return ret;
+            }
+        }
+
+        int numConstrained = nodes[node + NUM_CONSTRAINED];
+        if (numConstrained > 0) {
+            int base = nodes[node + CONSTRAINED_BASE];
+            for (int i = base; i < base + numConstrained; i++) {
+                if (requestPathTokens.satisfies(depth, constraints[i])) {
+                    int ret = route(constrainedChildren[i], requestPathTokens, depth + 1);
+                    if (ret >= 0) {
+                        return ret;
+                    }
+                }
+            }
+        }
+
+        int param = nodes[node + PARAM];
+        if (param >= 0) {
+            int ret = route(param, requestPathTokens, depth + 1);
+            if (ret >= 0) {
+                return ret;
+            }
+        }
+
+        int catchAll = nodes[node + CATCH_ALL];
+        return hasPattern(catchAll) ? catchAll : -1;
+    }
+
+    /**
+     * Like {@link #route(PathTokens, RouteMatch)}, counting the work done in
+     * {@code profile}. This is a copy of the walk, so that routing without
+     * profiling doesn't pay for it.
+     */
+    public boolean route(PathTokens requestPathTokens, RouteMatch<T> match, RouteProfile profile) {
+        return matched(route(ROOT, requestPathTokens, 0, profile), requestPathTokens, match, profile);
+    }
+
+    private int route(int node, PathTokens requestPathTokens, int depth, RouteProfile profile) {
+        profile.nodesVisited++;
+
+        int terminal = nodes[node + TERMINAL];
+        boolean hasPattern = hasPattern(terminal);
+        if (depth == requestPathTokens.size()) {
+            if (!hasPattern) {
+                profile.backtracks++;
+                return -1;
+            }
+            return terminal;
+        }
+
+        if (hasPattern) {
+            profile.rejected.add(patterns[terminal]);
+        }
+
+        int child = staticChild(node, requestPathTokens, depth);
+        if (child >= 0) {
+            int ret = route(child, requestPathTokens, depth + 1, profile);
+            if (ret >= 0) {
+                return ret;
+            }
+        }
+
+        int numConstrained = nodes[node + NUM_CONSTRAINED];
+        if (numConstrained > 0) {
+            int base = nodes[node + CONSTRAINED_BASE];
+            for (int i = base; i < base + numConstrained; i++) {
+                if (requestPathTokens.satisfies(depth, constraints[i])) {
+                    int ret = route(constrainedChildren[i], requestPathTokens, depth + 1, profile);
+                    if (ret >= 0) {
+                        return ret;
+                    }
+                }
+            }
+        }
+
+        int param = nodes[node + PARAM];
+        if (param >= 0) {
+            int ret = route(param, requestPathTokens, depth + 1, profile);
+            if (ret >= 0) {
+                return ret;
+            }
+        }
+
+        int catchAll = nodes[node + CATCH_ALL];
+        if (hasPattern(catchAll)) {
+            return catchAll;
+        }
+
+        profile.backtracks++;
+        return -1;
+    }
+
+    // Writes the pattern of the terminal to match, unless an added pattern
+    // matches and ranks above it.
+    // Added patterns have no constraints, so walking their tree doesn't replace
+    // the values converted by constraints while walking this one.
+    private boolean matched(int terminal, PathTokens requestPathTokens, RouteMatch<T> match, RouteProfile profile) {
+        FlatRouteTree<T> tree = this;
+        if (changes != null && changes.added != null) {
+            FlatRouteTree<T> added = changes.added;
+            int addedTerminal = (profile == null) ?
+                    added.route(ROOT, requestPathTokens, 0) : added.route(ROOT, requestPathTokens, 0, profile);
+            if (addedTerminal >= 0 &&
+                    (terminal < 0 || ranksAbove(added.patterns[addedTerminal], patterns[terminal]))) {
+                tree = added;
+                terminal = addedTerminal;
+            }
+        }
+
+        if (terminal < 0) {
+            return false;
+        }
+
+        tree.matched(terminal, requestPathTokens, match);
+        return true;
+    }
+
+    /**
+     * Given 2 patterns with different shapes matching the same path, checks
+     * if the first one is tried first by the walk (see {@link RouteTree}).
+     * Different constraints at the same position can't be compared.
+     */
+    private static boolean ranksAbove(PathPattern pathPattern, PathPattern other) {
+        int n = Math.min(pathPattern.numTokens(), other.numTokens());
+        for (int i = 0; i < n; i++) {
+            int rank = rank(pathPattern, i);
+            int otherRank = rank(other, i);
+            if (rank != otherRank) {
+                return rank < otherRank;
+            }
+        }
+        return false;
+    }
+
+    private static int rank(PathPattern pathPattern, int index) {
+        switch (pathPattern.kind(index)) {
+            case PathPattern.STATIC:
+                return 0;
+            case PathPattern.PARAM:
+                return (pathPattern.constraint(index) != null) ? 1 : 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Returns the union of the bit masks of all patterns matching the request
+     * path, see {@link RouteTree#addMethods(PathPattern, long)}. Unlike routing,
+     * all matching branches are walked, not only the first one.
+     */
+    public long methods(PathTokens requestPathTokens) {
+        long ret = (methods == null) ? 0 : methods(ROOT, requestPathTokens, 0);
+        if (changes != null && changes.added != null) {
+            ret |= changes.added.methods(requestPathTokens);
+        }
+        return ret;
+    }
+
+    private long methods(int node, PathTokens requestPathTokens, int depth) {
+        if (depth == requestPathTokens.size()) {
+            return methodsAt(nodes[node + TERMINAL]);
+        }
+
+        long ret = methodsAt(nodes[node + CATCH_ALL]);
+
+        int child = staticChild(node, requestPathTokens, depth);
+        if (child >= 0) {
+            ret |= methods(child, requestPathTokens, depth + 1);
+        }
+
+        int numConstrained = nodes[node + NUM_CONSTRAINED];
+        if (numConstrained > 0) {
+            int base = nodes[node + CONSTRAINED_BASE];
+            for (int i = base; i < base + numConstrained; i++) {
+                if (requestPathTokens.satisfies(depth, constraints[i])) {
+                    ret |= methods(constrainedChildren[i], requestPathTokens, depth + 1);
+                }
+            }
+        }
+
+        int param = nodes[node + PARAM];
+        if (param >= 0) {
+            ret |= methods(param, requestPathTokens, depth + 1);
+        }
+
+        return ret;
+    }
+
+    private long methodsAt(int terminal) {
+        if (terminal < 0 || methods == null) {
+            return 0;
+        }
+
+        long ret = methods[terminal];
+        if (changes != null) {
+            int removed = changes.indexOfRemoved(terminal);
+            if (removed >= 0) {
+                ret &= ~changes.removedMethods[removed];
+            }
+        }
+        return ret;
+    }
+
+    // Values converted by constraints were kept by the last check of each
+    // token, which is on the branch that matched
+    @SuppressWarnings("unchecked")
+    private void matched(int terminal, PathTokens requestPathTokens, RouteMatch<T> match) {
+        PathPattern pattern = patterns[terminal];
+        match.matched(pattern, (T) targets[terminal]);
+
+        String[] paramNames = pattern.paramNames();
+        for (int i = 0; i < paramNames.length; i++) {
+            String name = paramNames[i];
+            if (name != null) {
+                ParamConstraint constraint = pattern.constraint(i);
+                Object typedValue = (constraint != null && constraint.typed) ? requestPathTokens.typedValue(i) : null;
+                match.addPathParam(name, requestPathTokens.get(i), typedValue);
+            }
+        }
+
+        if (pattern.isCatchAll()) {
+            match.addPathParam("*", requestPathTokens.join(pattern.numTokens() - 1));
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Changes, for OrderlessRouter and Router, which keep the tree of the last
+    // snapshot and update it with each added or removed route.
+
+    /**
+     * Returns a tree that also matches the pattern, sharing the arrays of this
+     * one. If a pattern with the same shape is already matched, the new one is
+     * hidden by it, so this tree is returned.
+     *
+     * @return {@code null} if the tree must be built again from all routes
+     *         instead: the pattern has constraints, whose order would depend
+     *         on the order of routes, or there are too many changes
+     */
+    FlatRouteTree<T> add(PathPattern pathPattern, T target) {
+        if (hasConstraints(pathPattern)) {
+            return null;
+        }
+
+        if (patternWithShape(pathPattern) != null) {
+            return this;
+        }
+
+        int n = (changes == null) ? 0 : changes.addedPatterns.length;
+        PathPattern[] addedPatterns = (n == 0) ? new PathPattern[1] : Arrays.copyOf(changes.addedPatterns, n + 1);
+        Object[] addedTargets = (n == 0) ? new Object[1] : Arrays.copyOf(changes.addedTargets, n + 1);
+        addedPatterns[n] = pathPattern;
+        addedTargets[n] = target;
+        return withChanges(removed(), null, addedPatterns, addedTargets, null, numPatterns + 1);
+    }
+
+    /**
+     * Returns a tree that doesn't match the pattern, sharing the arrays of this
+     * one. The pattern must be matched by this tree, and no other route of this
+     * tree must have been hidden by it.
+     *
+     * @return {@code null} if the tree must be built again from all routes instead
+     */
+    FlatRouteTree<T> remove(PathPattern pathPattern) {
+        if (hasConstraints(pathPattern)) {
+            return null;
+        }
+
+        int index = (changes == null) ? -1 : Arrays.asList(changes.addedPatterns).indexOf(pathPattern);
+        if (index >= 0) {
+            return withChanges(removed(), null,
+                    remove(changes.addedPatterns, new PathPattern[changes.addedPatterns.length - 1], index),
+                    remove(changes.addedTargets, new Object[changes.addedTargets.length - 1], index),
+                    null, numPatterns - 1);
+        }
+
+        int terminal = terminal(pathPattern);
+        if (!hasPattern(terminal) || !patterns[terminal].equals(pathPattern)) {
+            return null;
+        }
+
+        int[] removed = removed();
+        int insertion = -Arrays.binarySearch(removed, terminal) - 1;
+        int[] newRemoved = new int[removed.length + 1];
+        System.arraycopy(removed, 0, newRemoved, 0, insertion);
+        newRemoved[insertion] = terminal;
+        System.arraycopy(removed, insertion, newRemoved, insertion + 1, removed.length - insertion);
+        return withChanges(newRemoved, null, addedPatterns(), addedTargets(), null, numPatterns - 1);
+    }
+
+    /**
+     * Like {@link #add(PathPattern, Object)}, for trees of methods: returns a
+     * tree where the shape of the pattern also has the bits of {@code methods}.
+     *
+     * @return {@code null} if the tree must be built again from all routes instead
+     */
+    FlatRouteTree<T> addMethods(PathPattern pathPattern, long methods) {
+        if ((methodsOf(pathPattern) & methods) == methods) {
+            return this;
+        }
+
+        int n = (changes == null) ? 0 : changes.addedPatterns.length;
+        PathPattern[] addedPatterns = (n == 0) ? new PathPattern[1] : Arrays.copyOf(changes.addedPatterns, n + 1);
+        long[] addedMethods = (n == 0) ? new long[1] : Arrays.copyOf(changes.addedMethods, n + 1);
+        addedPatterns[n] = pathPattern;
+        addedMethods[n] = methods;
+        return withChanges(removed(), removedMethods(), addedPatterns, null, addedMethods, 0);
+    }
+
+    /**
+     * Like {@link #remove(PathPattern)}, for trees of methods: returns a tree
+     * where the shape of the pattern doesn't have the bits of {@code methods}.
+     * No other route of these methods must have the same shape.
+     *
+     * @return {@code null} if the tree must be built again from all routes instead
+     */
+    FlatRouteTree<T> removeMethods(PathPattern pathPattern, long methods) {
+        int[] removed = removed();
+        long[] removedMethods = removedMethods();
+        int terminal = terminal(pathPattern);
+        if ((methodsAt(terminal) & methods) != 0) {
+            int index = Arrays.binarySearch(removed, terminal);
+            if (index >= 0) {
+                removedMethods = removedMethods.clone();
+                removedMethods[index] |= methods;
+            } else {
+                int insertion = -index - 1;
+                int[] newRemoved = new int[removed.length + 1];
+                long[] newRemovedMethods = new long[removed.length + 1];
+                System.arraycopy(removed, 0, newRemoved, 0, insertion);
+                System.arraycopy(removedMethods, 0, newRemovedMethods, 0, insertion);
+                newRemoved[insertion] = terminal;
+                newRemovedMethods[insertion] = methods;
+                System.arraycopy(removed, insertion, newRemoved, insertion + 1, removed.length - insertion);
+                System.arraycopy(removedMethods, insertion, newRemovedMethods, insertion + 1,
+                        removed.length - insertion);
+                removed = newRemoved;
+                removedMethods = newRemovedMethods;
+            }
+        }
+
+        // Added patterns with the same shape lose the bits too
+        List<PathPattern> addedPatterns = new ArrayList<PathPattern>();
+        List<Long> addedMethods = new ArrayList<Long>();
+        if (changes != null && changes.added != null) {
+            int addedTerminal = changes.added.terminal(pathPattern);
+            for (int i = 0; i < changes.addedPatterns.length; i++) {
+                long bits = changes.addedMethods[i];
+                if (changes.added.terminal(changes.addedPatterns[i]) == addedTerminal) {
+                    bits &= ~methods;
+                }
+                if (bits != 0) {
+                    addedPatterns.add(changes.addedPatterns[i]);
+                    addedMethods.add(bits);
+                }
+            }
+        }
+
+        long[] newAddedMethods = new long[addedMethods.size()];
+        for (int i = 0; i < newAddedMethods.length; i++) {
+            newAddedMethods[i] = addedMethods.get(i);
+        }
+        return withChanges(removed, removedMethods,
+                addedPatterns.toArray(new PathPattern[addedPatterns.size()]), null, newAddedMethods, 0);
+    }
+
+    // Of the shape of the pattern, in this tree and the added one
+    private long methodsOf(PathPattern pathPattern) {
+        long ret = methodsAt(terminal(pathPattern));
+        if (changes != null && changes.added != null) {
+            ret |= changes.added.methodsOf(pathPattern);
+        }
+        return ret;
+    }
+
+    private FlatRouteTree<T> withChanges(
+            int[] removed, long[] removedMethods,
+            PathPattern[] addedPatterns, Object[] addedTargets, long[] addedMethods, int numPatterns) {
+        // Each change builds the tree of added patterns again, and each walk
+        // matches 2 trees; past a few changes, building all again is cheaper
+        int numChanges = removed.length + addedPatterns.length;
+        if (numChanges > Math.min(MAX_CHANGES, patterns.length)) {
+            return null;
+        }
+
+        Changes<T> changes = (numChanges == 0) ?
+                null : new Changes<T>(removed, removedMethods, addedPatterns, addedTargets, addedMethods);
+        return new FlatRouteTree<T>(this, changes, numPatterns);
+    }
+
+    private int[] removed() {
+        return (changes == null) ? EMPTY_INTS : changes.removed;
+    }
+
+    private long[] removedMethods() {
+        return (changes == null) ? EMPTY_LONGS : changes.removedMethods;
+    }
+
+    private PathPattern[] addedPatterns() {
+        return (changes == null) ? EMPTY_PATTERNS : changes.addedPatterns;
+    }
+
+    private Object[] addedTargets() {
+        return (changes == null) ? EMPTY_OBJECTS : changes.addedTargets;
+    }
+
+    private static <E> E[] remove(E[] array, E[] to, int index) {
+        System.arraycopy(array, 0, to, 0, index);
+        System.arraycopy(array, index + 1, to, index, array.length - index - 1);
+        return to;
+    }
+
+    private static boolean hasConstraints(PathPattern pathPattern) {
+        for (int i = 0; i < pathPattern.numTokens(); i++) {
+            if (pathPattern.constraint(i) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
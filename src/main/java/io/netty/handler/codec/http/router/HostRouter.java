@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.internal.ObjectUtil;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Routes requests to a {@link Router} by host name first, for servers
+ * serving several virtual hosts.
+ *
+ * <pre>
+ * {@code
+ * HostRouter<Class> hostRouter = new HostRouter<Class>()
+ *   .host("api.example.com", apiRouter)
+ *   .host("*.example.com",   tenantRouter)  // a.example.com, a.b.example.com, but not example.com
+ *   .defaultRouter(fallbackRouter);          // Other hosts, or no Host header
+ *
+ * CompiledHostRouter<Class> compiled = hostRouter.compile();
+ * RouteResult<Class> routed = compiled.route("API.example.com:8080", HttpMethod.GET, "/articles/123");
+ * }
+ * </pre>
+ *
+ * <p>An exact host is preferred over a wildcard, and a longer wildcard over a
+ * shorter one. Host names are matched ignoring ASCII case, and the port and
+ * a trailing dot of the request host are ignored.
+ *
+ * <p>Like {@link Router}, this is a builder that is not thread safe while it
+ * is being modified; route with the immutable snapshot returned by
+ * {@link #compile()}, published with {@link AtomicHostRouter} to change hosts
+ * or routes while serving requests. Host names are
+ * looked up in a prefix tree of reversed labels, then the path in the
+ * snapshot of the router of the host, so that the host lookup doesn't
+ * lowercase the host or create strings.
+ */
+public class HostRouter<T> {
+    // Key: lowercase host pattern
+    private final Map<String, Router<T>> routers = new LinkedHashMap<String, Router<T>>();
+    private Router<T> defaultRouter;
+
+    // Cached result of compile(), reset when this router or the router of a
+    // host is modified (they know this router, see Router#addHostRouter).
+    // Built while holding the lock of this router, like in Router.
+    private volatile CompiledHostRouter<T> compiled;
+
+    /**
+     * Returns all host patterns and their routers, an unmodifiable map.
+     */
+    public Map<String, Router<T>> routers() {
+        return Collections.unmodifiableMap(routers);
+    }
+
+    /**
+     * Returns the router for requests that don't match any host, or {@code null}.
+     */
+    public Router<T> defaultRouter() {
+        return defaultRouter;
+    }
+
+    /**
+     * Sets the router for requests that don't match any host, including
+     * requests without host. {@code null} to remove it.
+     */
+    public HostRouter<T> defaultRouter(Router<T> router) {
+        Router<T> old = defaultRouter;
+        defaultRouter = router;
+        attach(router);
+        detach(old);
+        compiled = null;
+        return this;
+    }
+
+    /**
+     * Routes requests to the host to the router, replacing the previous router
+     * of the host pattern, if any.
+     *
+     * @param hostPattern a host name like {@code api.example.com}, or a
+     *                    wildcard like {@code *.example.com} matching any subdomain
+     */
+    public HostRouter<T> host(String hostPattern, Router<T> router) {
+        Router<T> old = routers.put(normalize(hostPattern), ObjectUtil.checkNotNull(router, "router"));
+        attach(router);
+        detach(old);
+        compiled = null;
+        return this;
+    }
+
+    /**
+     * Removes the host pattern.
+     */
+    public HostRouter<T> removeHost(String hostPattern) {
+        detach(routers.remove(normalize(hostPattern)));
+        compiled = null;
+        return this;
+    }
+
+    private void attach(Router<T> router) {
+        if (router != null) {
+            router.addHostRouter(this);
+        }
+    }
+
+    // The router may still be used by another host
+    private void detach(Router<T> router) {
+        if (router != null && router != defaultRouter && !routers.containsValue(router)) {
+            router.removeHostRouter(this);
+        }
+    }
+
+    void routerModified() {
+        compiled = null;
+    }
+
+    private static String normalize(String hostPattern) {
+        String ret = ObjectUtil.checkNotNull(hostPattern, "hostPattern").toLowerCase(Locale.ENGLISH);
+        if (ret.endsWith(".")) {
+            ret = ret.substring(0, ret.length() - 1);
+        }
+
+        int wildcard = ret.lastIndexOf('*');
+        if (ret.isEmpty() || ret.startsWith(".") || ret.contains("..") || ret.indexOf(':') >= 0 ||
+                (wildcard >= 0 && (wildcard != 0 || ret.length() < 3 || ret.charAt(1) != '.'))) {
+            throw new IllegalArgumentException(
+                    "Invalid host pattern: " + hostPattern + " (expected: host name, or *. then host name)");
+        }
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns an immutable snapshot of this router, with a snapshot of the
+     * router of each host, see {@link Router#compile()}. The previous snapshot
+     * is returned if neither this router nor the routers of the hosts have
+     * been modified since.
+     */
+    public CompiledHostRouter<T> compile() {
+        CompiledHostRouter<T> ret = compiled;
+        if (ret != null) {
+            return ret;
+        }
+
+        synchronized (this) {
+            ret = compiled;
+            if (ret == null) {
+                ret = new CompiledHostRouter<T>(routers, defaultRouter);
+                compiled = ret;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Routes with {@link #compile()}.
+     *
+     * @see CompiledHostRouter#route(CharSequence, HttpMethod, String)
+     */
+    public RouteResult<T> route(CharSequence host, HttpMethod method, String uri) {
+        return compile().route(host, method, uri);
+    }
+
+    @Override
+    public String toString() {
+        return compile().toString();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.AsciiString;
+
+/**
+ * Prefix tree of host names by reversed labels: {@code api.example.com} is
+ * stored as {@code com -> example -> api}, so that {@code *.example.com} is
+ * the "wildcard" value of the node {@code com -> example}.
+ *
+ * <p>Labels are looked up directly on the request host, ignoring ASCII case,
+ * without lowercasing or creating strings. The most specific match wins: an
+ * exact host, then the wildcard of the deepest node. A wildcard matches one or
+ * more labels, so {@code *.example.com} matches {@code a.b.example.com} but
+ * not {@code example.com}.
+ */
+final class HostTree<T> {
+    private static final class Node<T> {
+        // Open addressing hash table of children, keyed by lowercase label, see RouteTree
+        String[] labels;
+        int[] hashes;
+        Node<T>[] children;
+        int numChildren;
+
+        // Value of the host ending at this node, and of "*." + that host
+        T exact;
+        T wildcard;
+
+        Node<T> child(CharSequence host, int begin, int end) {
+            if (labels == null) {
+                return null;
+            }
+
+            int hash = hashIgnoreCase(host, begin, end);
+            int length = end - begin;
+            int mask = labels.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String label = labels[i];
+                if (label == null) {
+                    return null;
+                }
+                if (hashes[i] == hash && label.length() == length &&
+                        AsciiString.regionMatches(host, true, begin, label, 0, length)) {
+                    return children[i];
+                }
+            }
+        }
+
+        // The label must be lowercase
+        Node<T> getOrAddChild(String label) {
+            Node<T> ret = child(label, 0, label.length());
+            if (ret != null) {
+                return ret;
+            }
+
+            if (labels == null) {
+                resize(2);
+            } else if ((numChildren + 1) * 2 > labels.length) {
+                resize(labels.length * 2);
+            }
+
+            ret = new Node<T>();
+            put(label, label.hashCode(), ret);
+            numChildren++;
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void resize(int capacity) {
+            String[] oldLabels = labels;
+            int[] oldHashes = hashes;
+            Node<T>[] oldChildren = children;
+            labels = new String[capacity];
+            hashes = new int[capacity];
+            children = new Node[capacity];
+            if (oldLabels != null) {
+                for (int i = 0; i < oldLabels.length; i++) {
+                    if (oldLabels[i] != null) {
+                        put(oldLabels[i], oldHashes[i], oldChildren[i]);
+                    }
+                }
+            }
+        }
+
+        private void put(String label, int hash, Node<T> child) {
+            int mask = labels.length - 1;
+            int i = spread(hash) & mask;
+            while (labels[i] != null) {
+                i = (i + 1) & mask;
+            }
+            labels[i] = label;
+            hashes[i] = hash;
+            children[i] = child;
+        }
+    }
+
+    private final Node<T> root = new Node<T>();
+
+    /**
+     * @param host lowercase, like {@code api.example.com} or {@code *.example.com}
+     */
+    void add(String host, T value) {
+        boolean wildcard = host.startsWith("*.");
+        int begin = wildcard ? 2 : 0;
+
+        Node<T> node = root;
+        int labelEnd = host.length();
+        while (labelEnd >= begin) {
+            int labelBegin = host.lastIndexOf('.', labelEnd - 1) + 1;
+            if (labelBegin < begin) {
+                labelBegin = begin;
+            }
+            node = node.getOrAddChild(host.substring(labelBegin, labelEnd));
+            labelEnd = labelBegin - 1;
+        }
+
+        if (wildcard) {
+            node.wildcard = value;
+        } else {
+            node.exact = value;
+        }
+    }
+
+    /**
+     * Returns the value of the most specific host pattern matching
+     * {@code host.subSequence(0, end)}, or {@code null}.
+     */
+    T get(CharSequence host, int end) {
+        if (end == 0) {
+            return null;
+        }
+
+        Node<T> node = root;
+        T best = null;
+        int labelEnd = end;
+        for (;;) {
+            int labelBegin = labelBegin(host, labelEnd);
+
+            // There's at least one more label, the one about to be looked up
+            if (node.wildcard != null) {
+                best = node.wildcard;
+            }
+
+            node = node.child(host, labelBegin, labelEnd);
+            if (node == null) {
+                return best;
+            }
+            if (labelBegin == 0) {
+                return (node.exact == null) ? best : node.exact;
+            }
+            labelEnd = labelBegin - 1;
+        }
+    }
+
+    private static int labelBegin(CharSequence host, int labelEnd) {
+        for (int i = labelEnd - 1; i >= 0; i--) {
+            if (host.charAt(i) == '.') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    // Same as toLowerCase().hashCode() for ASCII
+    private static int hashIgnoreCase(CharSequence s, int begin, int end) {
+        int h = 0;
+        for (int i = begin; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
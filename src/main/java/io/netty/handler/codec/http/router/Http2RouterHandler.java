@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+import io.netty.handler.codec.http2.Http2StreamClosedEvent;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.internal.ObjectUtil;
+
+/**
+ * Like {@link RouterHandler}, for HTTP/2 frames: each stream is routed once
+ * with the {@code :method} and {@code :path} of its first
+ * {@link Http2HeadersFrame}, then that frame and the following frames of the
+ * stream ({@link Http2DataFrame}s, trailers, {@link Http2ResetFrame}) are
+ * dispatched to the target. The headers are routed as they are, without
+ * converting them to an HTTP/1.1 request.
+ *
+ * <p>Put this handler after an {@link io.netty.handler.codec.http2.Http2FrameCodec},
+ * where frames of all streams are read by the same channel, or in the pipeline
+ * of the stream channels of an {@link io.netty.handler.codec.http2.Http2MultiplexCodec}.
+ * Targets are called like those of {@link RouterHandler}.
+ *
+ * <p>Right before a frame is dispatched, the {@link RouteResult} of its stream
+ * is set to the channel attribute {@link RouterHandler#ROUTE_RESULT}. The
+ * result of a stream is forgotten after its last frame ({@code endStream} or
+ * reset), or when the codec closes the stream otherwise, like when the server
+ * resets it or after {@code GOAWAY} (see {@link Http2StreamClosedEvent}).
+ *
+ * <p>Frames of streams without a match (if the router doesn't have a
+ * {@link Router#notFound(Object) notFound} target) and frames not belonging
+ * to a stream are passed to the next handler.
+ */
+@Sharable
+public class Http2RouterHandler extends ChannelInboundHandlerAdapter {
+    // Route results of the streams being read, by stream ID
+    private static final AttributeKey<IntObjectMap<RouteResult<ChannelInboundHandler>>> STREAMS =
+            AttributeKey.valueOf(Http2RouterHandler.class, "STREAMS");
+
+    private final AtomicRouter<ChannelInboundHandler> router;
+
+    // Used instead of router when routing by host
+    private final AtomicHostRouter<ChannelInboundHandler> hostRouter;
+
+    /**
+     * Routes with a snapshot of the router, see {@link Router#compile()}.
+     * Later changes to the router are not seen by this handler.
+     */
+    public Http2RouterHandler(Router<ChannelInboundHandler> router) {
+        this(new AtomicRouter<ChannelInboundHandler>(ObjectUtil.checkNotNull(router, "router").compile()));
+    }
+
+    /**
+     * Routes each stream with the current snapshot of {@code router},
+     * so that routes can be changed while serving requests.
+     */
+    public Http2RouterHandler(AtomicRouter<ChannelInboundHandler> router) {
+        this.router = ObjectUtil.checkNotNull(router, "router");
+        hostRouter = null;
+    }
+
+    /**
+     * Routes each stream with a snapshot of the router of its host, see
+     * {@link HostRouter#compile()}. Later changes to the routers are not seen
+     * by this handler.
+     */
+    public Http2RouterHandler(HostRouter<ChannelInboundHandler> hostRouter) {
+        this(new AtomicHostRouter<ChannelInboundHandler>(
+                ObjectUtil.checkNotNull(hostRouter, "hostRouter").compile()));
+    }
+
+    /**
+     * Routes each stream with the current snapshot of {@code hostRouter}, so
+     * that hosts and routes can be changed while serving requests.
+     */
+    public Http2RouterHandler(AtomicHostRouter<ChannelInboundHandler> hostRouter) {
+        router = null;
+        this.hostRouter = ObjectUtil.checkNotNull(hostRouter, "hostRouter");
+    }
+
+    /**
+     * Returns the router given to the constructor, or a holder of the snapshot;
+     * {@code null} if routing by host.
+     */
+    public AtomicRouter<ChannelInboundHandler> router() {
+        return router;
+    }
+
+    /**
+     * Returns the host router given to the constructor, or a holder of the
+     * snapshot; {@code null} if not routing by host.
+     */
+    public AtomicHostRouter<ChannelInboundHandler> hostRouter() {
+        return hostRouter;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Http2StreamFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        Attribute<IntObjectMap<RouteResult<ChannelInboundHandler>>> attr = ctx.channel().attr(STREAMS);
+        IntObjectMap<RouteResult<ChannelInboundHandler>> streams = attr.get();
+        if (streams == null) {
+            streams = new IntObjectHashMap<RouteResult<ChannelInboundHandler>>();
+            attr.set(streams);
+        }
+
+        Http2StreamFrame frame = (Http2StreamFrame) msg;
+        int streamId = frame.streamId();
+        RouteResult<ChannelInboundHandler> routeResult = streams.get(streamId);
+
+        // Trailers are also a headers frame, but the stream has been routed
+        if (routeResult == null && msg instanceof Http2HeadersFrame) {
+            RouteMatch<ChannelInboundHandler> match = RouteMatch.threadLocal();
+            Http2Headers headers = ((Http2HeadersFrame) msg).headers();
+            boolean matched = (hostRouter == null) ?
+                    router.get().route(headers, match) : hostRouter.get().route(headers, match);
+            if (!matched) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+
+            routeResult = match.toRouteResult();
+            if (!isLastFrame(msg)) {
+                streams.put(streamId, routeResult);
+            }
+
+            RouteStats stats = match.stats;
+            if (stats != null) {
+                ctx.channel().attr(RouterHandler.ROUTE_RESULT).set(routeResult);
+                RouterHandler.dispatchTimed(ctx, msg, routeResult.target(), stats);
+                return;
+            }
+        } else if (routeResult != null && isLastFrame(msg)) {
+            streams.remove(streamId);
+        }
+
+        if (routeResult == null) {
+            ctx.fireChannelRead(msg);
+        } else {
+            ctx.channel().attr(RouterHandler.ROUTE_RESULT).set(routeResult);
+            routeResult.target().channelRead(ctx, msg);
+        }
+    }
+
+    private static boolean isLastFrame(Object frame) {
+        if (frame instanceof Http2HeadersFrame) {
+            return ((Http2HeadersFrame) frame).isEndStream();
+        }
+        if (frame instanceof Http2DataFrame) {
+            return ((Http2DataFrame) frame).isEndStream();
+        }
+        return frame instanceof Http2ResetFrame;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof Http2StreamClosedEvent) {
+            IntObjectMap<RouteResult<ChannelInboundHandler>> streams = ctx.channel().attr(STREAMS).get();
+            if (streams != null) {
+                streams.remove(((Http2StreamClosedEvent) evt).streamId());
+            }
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(STREAMS).set(null);
+        super.channelInactive(ctx);
+    }
+}
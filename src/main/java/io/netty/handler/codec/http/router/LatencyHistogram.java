@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Concurrent histogram of durations in nanoseconds, with buckets of
+ * logarithmic width like HdrHistogram: each power of 2 is divided into
+ * {@link #SUB_BUCKETS} buckets, so a recorded value is known within 25%.
+ * Values from 0 to about 18 minutes are covered; longer ones are counted
+ * in the last bucket.
+ *
+ * <p>Buckets are striped by thread, so that event loop threads recording
+ * into the same histogram rarely update the same counter. The
+ * {@value #STRIPES} x {@value #NUM_BUCKETS} counters (5 KB) are only
+ * allocated on the first record.
+ */
+final class LatencyHistogram {
+    static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 40;
+    static final int NUM_BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+    private static final int STRIPES = 4;
+
+    private static final AtomicReferenceFieldUpdater<LatencyHistogram, AtomicLongArray> COUNTS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LatencyHistogram.class, AtomicLongArray.class, "counts");
+
+    private volatile AtomicLongArray counts;
+    private final LongCounter sum = PlatformDependent.newLongCounter();
+
+    /**
+     * Returns the bucket of the value.
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (nanos < 0) ? 0 : (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+
+        // The 2 bits after the highest one
+        int subBucket = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value of the bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+        return lowest + (1L << (exponent - 2)) - 1;
+    }
+
+    //--------------------------------------------------------------------------
+
+    void record(long nanos) {
+        AtomicLongArray c = counts;
+        if (c == null) {
+            COUNTS_UPDATER.compareAndSet(this, null, new AtomicLongArray(STRIPES * NUM_BUCKETS));
+            c = counts;
+        }
+
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        c.getAndIncrement(stripe * NUM_BUCKETS + bucket(nanos));
+        sum.add(nanos);
+    }
+
+    /**
+     * Counts are read one by one while other threads may be recording,
+     * so the snapshot is not atomic.
+     */
+    LatencySnapshot snapshot() {
+        long[] ret = new long[NUM_BUCKETS];
+        AtomicLongArray c = counts;
+        if (c != null) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                for (int i = 0; i < NUM_BUCKETS; i++) {
+                    ret[i] += c.get(stripe * NUM_BUCKETS + i);
+                }
+            }
+        }
+        return new LatencySnapshot(ret, sum.value());
+    }
+}
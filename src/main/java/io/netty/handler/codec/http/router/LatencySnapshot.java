@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+/**
+ * Immutable copy of a latency histogram of {@link RouteMetrics}.
+ * Values are in nanoseconds. Because durations are counted in buckets,
+ * percentiles and the maximum are the highest value of their bucket, at
+ * most 25% more than the recorded value.
+ */
+public final class LatencySnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    LatencySnapshot(long[] counts, long sum) {
+        this.counts = counts;
+        this.sum = sum;
+
+        long c = 0;
+        for (long bucketCount : counts) {
+            c += bucketCount;
+        }
+        count = c;
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of recorded durations, 0 if there's none.
+     */
+    public double mean() {
+        return (count == 0) ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the longest recorded duration, 0 if there's none.
+     */
+    public long max() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] != 0) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the duration below which the given percentage of durations are,
+     * for example {@code valueAtPercentile(99)}; 0 if there's none.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile: " + percentile + " (expected: 0-100)");
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        if (rank == 0) {
+            rank = 1;
+        }
+
+        long acc = 0;
+        for (int i = 0; i < counts.length; i++) {
+            acc += counts[i];
+            if (acc >= rank) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot(count: " + count + ", mean: " + (long) mean() +
+               ", p50: " + valueAtPercentile(50) + ", p99: " + valueAtPercentile(99) +
+               ", max: " + max() + ')';
+    }
+}
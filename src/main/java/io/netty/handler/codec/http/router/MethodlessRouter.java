@@ -15,17 +15,47 @@
  */
 package io.netty.handler.codec.http.router;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Router that contains information about route matching orders, but doesn't
  * contain information about HTTP request methods.
  *
  * <p>Routes are devided into 3 sections: "first", "last", and "other".
  * Routes in "first" are matched first, then in "other", then in "last".
+ *
+ * <p>Inside a section, the most specific route wins (see {@link RouteTree}),
+ * so the first match of a section is final and the next sections are not tried.
  */
 final class MethodlessRouter<T> {
-    private final OrderlessRouter<T> first = new OrderlessRouter<T>();
-    private final OrderlessRouter<T> other = new OrderlessRouter<T>();
-    private final OrderlessRouter<T> last = new OrderlessRouter<T>();
+    private final OrderlessRouter<T> first;
+    private final OrderlessRouter<T> other;
+    private final OrderlessRouter<T> last;
+
+    MethodlessRouter() {
+        first = new OrderlessRouter<T>();
+        other = new OrderlessRouter<T>();
+        last = new OrderlessRouter<T>();
+    }
+
+    /**
+     * Creates a deep copy, for {@link CompiledRouter}.
+     */
+    MethodlessRouter(MethodlessRouter<T> router) {
+        first = new OrderlessRouter<T>(router.first);
+        other = new OrderlessRouter<T>(router.other);
+        last = new OrderlessRouter<T>(router.last);
+    }
+
+    /**
+     * Creates a router from sections read by {@link RouteIndex}.
+     */
+    MethodlessRouter(OrderlessRouter<T> first, OrderlessRouter<T> other, OrderlessRouter<T> last) {
+        this.first = first;
+        this.other = other;
+        this.last = last;
+    }
 
     //--------------------------------------------------------------------------
 
@@ -65,10 +95,11 @@ final class MethodlessRouter<T> {
      *
      * <p>A path pattern can only point to one target. This method does nothing if the pattern
      * has already been added.
+     *
+     * @return {@code false} if the pattern has already been added
      */
-    public MethodlessRouter<T> addRouteFirst(String pathPattern, T target) {
-        first.addRoute(pathPattern, target);
-        return this;
+    public boolean addRouteFirst(PathPattern pathPattern, T target) {
+        return first.addRoute(pathPattern, target);
     }
 
     /**
@@ -76,10 +107,11 @@ final class MethodlessRouter<T> {
      *
      * <p>A path pattern can only point to one target. This method does nothing if the pattern
      * has already been added.
+     *
+     * @return {@code false} if the pattern has already been added
      */
-    public MethodlessRouter<T> addRoute(String pathPattern, T target) {
-        other.addRoute(pathPattern, target);
-        return this;
+    public boolean addRoute(PathPattern pathPattern, T target) {
+        return other.addRoute(pathPattern, target);
     }
 
     /**
@@ -87,63 +119,58 @@ final class MethodlessRouter<T> {
      *
      * <p>A path pattern can only point to one target. This method does nothing if the pattern
      * has already been added.
+     *
+     * @return {@code false} if the pattern has already been added
      */
-    public MethodlessRouter<T> addRouteLast(String pathPattern, T target) {
-        last.addRoute(pathPattern, target);
-        return this;
+    public boolean addRouteLast(PathPattern pathPattern, T target) {
+        return last.addRoute(pathPattern, target);
     }
 
     //--------------------------------------------------------------------------
 
     /**
      * Removes the route specified by the path pattern.
+     *
+     * @return {@code false} if there's no such route
      */
-    public void removePathPattern(String pathPattern) {
-        first.removePathPattern(pathPattern);
-        other.removePathPattern(pathPattern);
-        last.removePathPattern(pathPattern);
+    public boolean removePathPattern(PathPattern pathPattern) {
+        // Not short-circuited: the pattern may be in several sections
+        return first.removePathPattern(pathPattern) |
+                other.removePathPattern(pathPattern) |
+                last.removePathPattern(pathPattern);
     }
 
     /**
      * Removes all routes leading to the target.
+     *
+     * @return the patterns of the removed routes
      */
-    public void removeTarget(T target) {
-        first.removeTarget(target);
-        other.removeTarget(target);
-        last.removeTarget(target);
+    public List<PathPattern> removeTarget(T target) {
+        List<PathPattern> ret = new ArrayList<PathPattern>();
+        ret.addAll(first.removeTarget(target));
+        ret.addAll(other.removeTarget(target));
+        ret.addAll(last.removeTarget(target));
+        return ret;
     }
 
-    //--------------------------------------------------------------------------
-
     /**
-     * @return {@code null} if no match
+     * Checks if a route has the same shape as the pattern, see {@link RouteTree}.
      */
-    public RouteResult<T> route(String uri, String decodedPath, String[] pathTokens) {
-        RouteResult<T> ret = first.route(uri, decodedPath, pathTokens);
-        if (ret != null) {
-            return ret;
-        }
-
-        ret = other.route(uri, decodedPath, pathTokens);
-        if (ret != null) {
-            return ret;
-        }
-
-        ret = last.route(uri, decodedPath, pathTokens);
-        if (ret != null) {
-            return ret;
-        }
-
-        return null;
+    boolean hasShape(PathPattern pathPattern) {
+        return first.hasShape(pathPattern) || other.hasShape(pathPattern) || last.hasShape(pathPattern);
     }
 
+    //--------------------------------------------------------------------------
+
     /**
-     * Checks if there's any matching route.
+     * {@code match} will be updated with the target and params embedded in the request path.
+     *
+     * @return {@code false} if no match
      */
-    public boolean anyMatched(String[] requestPathTokens) {
-        return first.anyMatched(requestPathTokens) ||
-                other.anyMatched(requestPathTokens) ||
-                last.anyMatched(requestPathTokens);
+    public boolean route(PathTokens pathTokens, RouteMatch<T> match) {
+        return first.route(pathTokens, match) ||
+                other.route(pathTokens, match) ||
+                last.route(pathTokens, match);
     }
 
     /**
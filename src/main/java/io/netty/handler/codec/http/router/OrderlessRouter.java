@@ -21,12 +21,15 @@ import io.netty.util.internal.logging.InternalLoggerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Router that doesn't contain information about HTTP request methods and route
@@ -35,11 +38,45 @@ import java.util.Set;
 final class OrderlessRouter<T> {
     private static final InternalLogger log = InternalLoggerFactory.getInstance(OrderlessRouter.class);
 
-    // A path pattern can only point to one target
-    private final Map<PathPattern, T> routes = new HashMap<PathPattern, T>();
+    private static final int MAX_CACHED_PARAM_NAME_SETS = 32;
 
-    // Reverse index to create reverse routes fast (a target can have multiple path patterns)
-    private final Map<T, Set<PathPattern>> reverseRoutes = new HashMap<T, Set<PathPattern>>();
+    // A path pattern can only point to one target.
+    // Insertion order is kept so that the tree can be rebuilt deterministically.
+    // Shared with the copies, see RouteMap.
+    private RouteMap<T> routes;
+
+    // Index of routes for matching, see RouteTree and FlatRouteTree.
+    // Built on first use, like by the copy constructor, then shared with the
+    // copies: it is immutable. Adding or removing a route replaces it with a
+    // tree sharing its arrays, or drops it to be built again on next use.
+    private FlatRouteTree<T> tree;
+
+    OrderlessRouter() {
+        routes = new RouteMap<T>();
+    }
+
+    /**
+     * Creates a copy, for {@link CompiledRouter}. The routes and the tree are
+     * shared: later changes to the router replace them instead of modifying them.
+     */
+    OrderlessRouter(OrderlessRouter<T> router) {
+        routes = router.routes.share();
+        tree = router.tree();
+    }
+
+    /**
+     * Creates a router from routes and a tree read by {@link RouteIndex}.
+     * The patterns of the tree must be those of the routes.
+     */
+    OrderlessRouter(PathPattern[] patterns, T[] targets, FlatRouteTree<T> tree) {
+        routes = RouteMap.of(patterns, targets).share();
+        this.tree = tree;
+    }
+
+    // Cache of reverse routing: target -> param names -> best pattern, see bestPattern().
+    // Concurrent because CompiledRouter is used by many threads.
+    private final ConcurrentMap<T, ConcurrentMap<Set<Object>, PathPattern>> bestPatterns =
+            new ConcurrentHashMap<T, ConcurrentMap<Set<Object>, PathPattern>>();
 
     //--------------------------------------------------------------------------
 
@@ -47,7 +84,7 @@ final class OrderlessRouter<T> {
      * Returns all routes in this router, an unmodifiable map of {@code PathPattern -> Target}.
      */
     public Map<PathPattern, T> routes() {
-        return Collections.unmodifiableMap(routes);
+        return routes.asMap();
     }
 
     /**
@@ -55,97 +92,127 @@ final class OrderlessRouter<T> {
      * A path pattern can only point to one target.
      */
     public OrderlessRouter<T> addRoute(String pathPattern, T target) {
-        PathPattern p = new PathPattern(pathPattern);
-        if (routes.containsKey(p)) {
-            return this;
-        }
-
-        routes.put(p, target);
-        addReverseRoute(target, p);
+        addRoute(new PathPattern(pathPattern), target);
         return this;
     }
 
-    private void addReverseRoute(T target, PathPattern pathPattern) {
-        Set<PathPattern> patterns = reverseRoutes.get(target);
-        if (patterns == null) {
-            patterns = new HashSet<PathPattern>();
-            patterns.add(pathPattern);
-            reverseRoutes.put(target, patterns);
-        } else {
-            patterns.add(pathPattern);
+    /**
+     * Like {@link #addRoute(String, Object)}, with a parsed pattern.
+     *
+     * @return {@code false} if the path pattern has already been added
+     */
+    boolean addRoute(PathPattern pathPattern, T target) {
+        if (routes.get(pathPattern) != null) {
+            return false;
         }
+
+        routes = routes.put(pathPattern, target);
+        bestPatterns.clear();
+        if (tree != null) {
+            tree = tree.add(pathPattern, target);
+        }
+        return true;
     }
 
     //--------------------------------------------------------------------------
 
     /**
      * Removes the route specified by the path pattern.
+     *
+     * @return {@code false} if there's no such route
      */
-    public void removePathPattern(String pathPattern) {
-        PathPattern p = new PathPattern(pathPattern);
-        T target = routes.remove(p);
-        if (target == null) {
-            return;
+    public boolean removePathPattern(PathPattern pathPattern) {
+        if (routes.get(pathPattern) == null) {
+            return false;
         }
 
-        Set<PathPattern> paths = reverseRoutes.remove(target);
-        paths.remove(p);
+        routes = routes.remove(pathPattern);
+        removeFromTree(pathPattern);
+        return true;
     }
 
     /**
      * Removes all routes leading to the target.
+     *
+     * @return the patterns of the removed routes
      */
-    public void removeTarget(T target) {
-        Set<PathPattern> patterns = reverseRoutes.remove(ObjectUtil.checkNotNull(target, "target"));
+    public List<PathPattern> removeTarget(T target) {
+        Set<PathPattern> patterns = routes.patterns(ObjectUtil.checkNotNull(target, "target"));
         if (patterns == null) {
-            return;
+            return Collections.emptyList();
         }
 
         // A pattern can only point to one target.
         // A target can have multiple patterns.
         // Remove all patterns leading to this target.
-        for (PathPattern pattern : patterns) {
-            routes.remove(pattern);
+        List<PathPattern> ret = new ArrayList<PathPattern>(patterns);
+        for (PathPattern pattern : ret) {
+            routes = routes.remove(pattern);
+            removeFromTree(pattern);
         }
+        return ret;
     }
 
-    //--------------------------------------------------------------------------
+    // A removed pattern may have hidden other ones with the same shape, then
+    // the tree is built again instead of removing from it. There are such
+    // patterns if the tree matches less patterns than there were routes.
+    private void removeFromTree(PathPattern pathPattern) {
+        bestPatterns.clear();
+        if (tree != null) {
+            tree = (tree.numPatterns() == routes.size() + 1) ? tree.remove(pathPattern) : null;
+        }
+    }
 
-    /**
-     * @return {@code null} if no match
-     */
-    public RouteResult<T> route(String uri, String decodedPath, String[] pathTokens) {
-        // Optimize: reuse requestPathTokens and pathParams in the loop
-        Map<String, String> pathParams = new HashMap<String, String>();
-        for (Map.Entry<PathPattern, T> entry : routes.entrySet()) {
-            PathPattern pattern = entry.getKey();
-            if (pattern.match(pathTokens, pathParams)) {
-                T target = entry.getValue();
-                return new RouteResult<T>(uri, decodedPath, pathParams, Collections.<String, List<String>>emptyMap(), target);
-            }
+    private FlatRouteTree<T> buildTree() {
+        RouteTree<T> builder = new RouteTree<T>();
+        for (Map.Entry<PathPattern, T> entry : routes.asMap().entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        return new FlatRouteTree<T>(builder);
+    }
 
-            // Reset for the next try
-            pathParams.clear();
+    FlatRouteTree<T> tree() {
+        FlatRouteTree<T> ret = tree;
+        if (ret == null) {
+            ret = buildTree();
+            tree = ret;
         }
+        return ret;
+    }
 
-        return null;
+    /**
+     * Returns the tree, built again from all routes if routes have been
+     * added or removed since it was built, for {@link RouteIndex}.
+     */
+    FlatRouteTree<T> compactTree() {
+        FlatRouteTree<T> ret = tree();
+        return ret.hasChanges() ? buildTree() : ret;
     }
 
     /**
-     * Checks if there's any matching route.
+     * Checks if a route has the same shape as the pattern, see {@link RouteTree}.
      */
-    public boolean anyMatched(String[] requestPathTokens) {
-        Map<String, String> pathParams = new HashMap<String, String>();
-        for (PathPattern pattern : routes.keySet()) {
-            if (pattern.match(requestPathTokens, pathParams)) {
-                return true;
-            }
+    boolean hasShape(PathPattern pathPattern) {
+        // Hidden patterns have the same shape as a matched one
+        return tree().patternWithShape(pathPattern) != null;
+    }
 
-            // Reset for the next loop
-            pathParams.clear();
-        }
+    //--------------------------------------------------------------------------
 
-        return false;
+    /**
+     * {@code match} will be updated with the target and params embedded in the request path.
+     *
+     * @return {@code false} if no match
+     */
+    public boolean route(PathTokens pathTokens, RouteMatch<T> match) {
+        return tree().route(pathTokens, match);
+    }
+
+    /**
+     * Like {@link #route(PathTokens, RouteMatch)}, counting the work done in {@code profile}.
+     */
+    public boolean route(PathTokens pathTokens, RouteMatch<T> match, RouteProfile profile) {
+        return tree().route(pathTokens, match, profile);
     }
 
     //--------------------------------------------------------------------------
@@ -190,84 +257,94 @@ final class OrderlessRouter<T> {
      * @return {@code null} if there's no match, or the params can't be UTF-8 encoded
      */
     private String pathMap(T target, Map<Object, Object> params) {
-        Set<PathPattern> patterns = reverseRoutes.get(target);
+        Set<PathPattern> patterns = routes.patterns(target);
         if (patterns == null) {
             return null;
         }
 
-        try {
-            // The best one is the one with minimum number of params in the query
-            String bestCandidate = null;
-            int minQueryParams = Integer.MAX_VALUE;
-
-            boolean matched = true;
-            Set<String> usedKeys = new HashSet<String>();
-
-            for (PathPattern pattern : patterns) {
-                matched = true;
-                usedKeys.clear();
-
-                // "+ 16": Just in case the part befor that is 0
-                int initialCapacity = pattern.pattern().length() + 20 * params.size() + 16;
-                StringBuilder b = new StringBuilder(initialCapacity);
-
-                for (String token : pattern.tokens()) {
-                    b.append('/');
-
-                    if (token.length() > 0 && token.charAt(0) == ':') {
-                        String key = token.substring(1);
-                        Object value = params.get(key);
-                        if (value == null) {
-                            matched = false;
-                            break;
-                        }
-
-                        usedKeys.add(key);
-                        b.append(value.toString());
-                    } else {
-                        b.append(token);
+        PathPattern pattern = bestPattern(target, patterns, params);
+        if (pattern == null) {
+            return null;
+        }
+
+        // "+ 16": Just in case the part befor that is 0
+        int initialCapacity = pattern.pattern().length() + 20 * params.size() + 16;
+        StringBuilder b = new StringBuilder(initialCapacity);
+        pattern.appendPath(b, params);
+
+        if (params.size() > pattern.numDistinctPlaceholders()) {
+            try {
+                boolean firstQueryParam = true;
+                for (Map.Entry<Object, Object> entry : params.entrySet()) {
+                    String key = entry.getKey().toString();
+                    if (!pattern.hasPlaceholder(key)) {
+                        b.append(firstQueryParam ? '?' : '&');
+                        firstQueryParam = false;
+
+                        // May throw UnsupportedEncodingException
+                        b.append(URLEncoder.encode(key, "UTF-8"));
+
+                        b.append('=');
+
+                        // May throw UnsupportedEncodingException
+                        b.append(URLEncoder.encode(entry.getValue().toString(), "UTF-8"));
                     }
                 }
+            } catch (UnsupportedEncodingException e) {
+                log.warn("Params can't be UTF-8 encoded: " + params);
+                return null;
+            }
+        }
 
-                if (matched) {
-                    int numQueryParams = params.size() - usedKeys.size();
-                    if (numQueryParams < minQueryParams) {
-                        if (numQueryParams > 0) {
-                            boolean firstQueryParam = true;
-
-                            for (Map.Entry<Object, Object> entry : params.entrySet()) {
-                                String key = entry.getKey().toString();
-                                if (!usedKeys.contains(key)) {
-                                    if (firstQueryParam) {
-                                        b.append('?');
-                                        firstQueryParam = false;
-                                    } else {
-                                        b.append('&');
-                                    }
-
-                                    String value = entry.getValue().toString();
-
-                                    // May throw UnsupportedEncodingException
-                                    b.append(URLEncoder.encode(key, "UTF-8"));
-
-                                    b.append('=');
-
-                                    // May throw UnsupportedEncodingException
-                                    b.append(URLEncoder.encode(value, "UTF-8"));
-                                }
-                            }
-                        }
-
-                        bestCandidate = b.toString();
-                        minQueryParams = numQueryParams;
-                    }
+        return b.toString();
+    }
+
+    /**
+     * The best pattern is the first one that leaves the minimum number of params
+     * for the query part. It only depends on the target and the param names,
+     * so it is cached by them.
+     *
+     * @return {@code null} if no pattern can be filled with the params
+     */
+    private PathPattern bestPattern(T target, Set<PathPattern> patterns, Map<Object, Object> params) {
+        // A null value is treated as a missing param, so the names are not enough
+        boolean cacheable = !params.containsValue(null);
+
+        ConcurrentMap<Set<Object>, PathPattern> cache = null;
+        if (cacheable) {
+            cache = bestPatterns.get(target);
+            if (cache != null) {
+                PathPattern ret = cache.get(params.keySet());
+                if (ret != null) {
+                    return ret;
                 }
             }
+        }
 
-            return bestCandidate;
-        } catch (UnsupportedEncodingException e) {
-            log.warn("Params can't be UTF-8 encoded: " + params);
-            return null;
+        PathPattern ret = null;
+        int maxPlaceholders = -1;
+        for (PathPattern pattern : patterns) {
+            if (pattern.numDistinctPlaceholders() > maxPlaceholders && pattern.canFill(params)) {
+                ret = pattern;
+                maxPlaceholders = pattern.numDistinctPlaceholders();
+            }
+        }
+
+        if (ret != null && cacheable) {
+            if (cache == null) {
+                cache = new ConcurrentHashMap<Set<Object>, PathPattern>();
+                ConcurrentMap<Set<Object>, PathPattern> existing = bestPatterns.putIfAbsent(target, cache);
+                if (existing != null) {
+                    cache = existing;
+                }
+            }
+
+            // The cache is bounded, in case params have many different names
+            if (cache.size() < MAX_CACHED_PARAM_NAME_SETS) {
+                cache.put(new HashSet<Object>(params.keySet()), ret);
+            }
         }
+
+        return ret;
     }
 }
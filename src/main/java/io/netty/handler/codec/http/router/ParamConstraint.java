@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Constraint of a placeholder, like {@code :id<int>} or {@code :slug<[a-z-]+>},
+ * checked while matching. See {@link PathPattern}.
+ *
+ * <p>The types {@code int}, {@code long} and {@code uuid} are checked by
+ * scanning the chars directly, and the value is converted while scanning,
+ * so that handlers get an {@link Integer}, {@link Long} or {@link UUID}
+ * without parsing the string again. Any other constraint is a regular
+ * expression that the whole token must match.
+ */
+abstract class ParamConstraint {
+    static final ParamConstraint INT = new ParamConstraint("int", true) {
+        @Override
+        Object parse(CharSequence s, int begin, int end) {
+            long value = parseLong(s, begin, end, 10);
+            return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? null : Integer.valueOf((int) value);
+        }
+    };
+
+    static final ParamConstraint LONG = new ParamConstraint("long", true) {
+        @Override
+        Object parse(CharSequence s, int begin, int end) {
+            if (!isLong(s, begin, end)) {
+                return null;
+            }
+            return Long.valueOf(parseLong(s, begin, end, 19));
+        }
+    };
+
+    static final ParamConstraint UUID_TYPE = new ParamConstraint("uuid", true) {
+        @Override
+        Object parse(CharSequence s, int begin, int end) {
+            // 8-4-4-4-12 hex digits
+            if (end - begin != 36) {
+                return null;
+            }
+
+            long msb = 0;
+            long lsb = 0;
+            for (int i = 0; i < 36; i++) {
+                char c = s.charAt(begin + i);
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    if (c != '-') {
+                        return null;
+                    }
+                    continue;
+                }
+
+                int digit = hexDigit(c);
+                if (digit < 0) {
+                    return null;
+                }
+                if (i < 18) {
+                    msb = (msb << 4) | digit;
+                } else {
+                    lsb = (lsb << 4) | digit;
+                }
+            }
+            return new UUID(msb, lsb);
+        }
+    };
+
+    // Returned by constraints that don't convert the value
+    private static final Object MATCHED = Boolean.TRUE;
+
+    /**
+     * Returns the constraint for the part between {@code '<'} and {@code '>'}.
+     */
+    static ParamConstraint of(String spec) {
+        if (spec.equals(INT.spec)) {
+            return INT;
+        }
+        if (spec.equals(LONG.spec)) {
+            return LONG;
+        }
+        if (spec.equals(UUID_TYPE.spec)) {
+            return UUID_TYPE;
+        }
+
+        final Pattern regex;
+        try {
+            regex = Pattern.compile(spec);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid param constraint: <" + spec + '>', e);
+        }
+        return new ParamConstraint(spec, false) {
+            @Override
+            Object parse(CharSequence s, int begin, int end) {
+                return regex.matcher(s).region(begin, end).matches() ? MATCHED : null;
+            }
+        };
+    }
+
+    /** The part between {@code '<'} and {@code '>'}; constraints with the same spec are the same. */
+    final String spec;
+
+    /** Whether {@link #parse(CharSequence, int, int)} returns a converted value. */
+    final boolean typed;
+
+    private ParamConstraint(String spec, boolean typed) {
+        this.spec = spec;
+        this.typed = typed;
+    }
+
+    /**
+     * Checks the token {@code s.subSequence(begin, end)}.
+     *
+     * @return {@code null} if the token doesn't satisfy the constraint,
+     *         otherwise the converted value if {@link #typed}
+     */
+    abstract Object parse(CharSequence s, int begin, int end);
+
+    //--------------------------------------------------------------------------
+
+    // Optional '-', then at most maxDigits decimal digits; returns Long.MIN_VALUE if invalid
+    private static long parseLong(CharSequence s, int begin, int end, int maxDigits) {
+        boolean negative = begin < end && s.charAt(begin) == '-';
+        int i = negative ? begin + 1 : begin;
+        if (i == end || end - i > maxDigits) {
+            return Long.MIN_VALUE;
+        }
+
+        long ret = 0;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            ret = ret * 10 + (c - '0');
+        }
+        return negative ? -ret : ret;
+    }
+
+    // 19 digits may overflow, compare with the limit before converting
+    private static boolean isLong(CharSequence s, int begin, int end) {
+        boolean negative = begin < end && s.charAt(begin) == '-';
+        int digitsBegin = negative ? begin + 1 : begin;
+        int numDigits = end - digitsBegin;
+        if (numDigits == 0 || numDigits > 19) {
+            return false;
+        }
+        for (int i = digitsBegin; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        if (numDigits < 19) {
+            return true;
+        }
+
+        String limit = negative ? "9223372036854775808" : "9223372036854775807";
+        for (int i = 0; i < 19; i++) {
+            char c = s.charAt(digitsBegin + i);
+            char l = limit.charAt(i);
+            if (c != l) {
+                return c < l;
+            }
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return '<' + spec + '>';
+    }
+}
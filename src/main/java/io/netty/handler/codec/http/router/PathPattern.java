@@ -17,6 +17,9 @@ package io.netty.handler.codec.http.router;
 
 import io.netty.util.internal.ObjectUtil;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,8 +34,35 @@ import java.util.Map;
  *
  * <p>The pattern will be broken to tokens, example:
  * {@code ["constant1", ":variable", "constant2", ":*"]}
+ *
+ * <p>A placeholder can have a constraint, which is checked while matching:
+ * {@code :id<int>}, {@code :id<long>}, {@code :id<uuid>}, or a regular
+ * expression like {@code :slug<[a-z-]+>}. The expression can contain
+ * {@code '?'} and {@code '/'}; it ends at the first {@code '>'} followed by
+ * {@code '/'} or by the end of the pattern.
+ * The values of {@code int}, {@code long} and {@code uuid} params are
+ * converted while checking, see {@link RouteMatch#typedPathParam(String)}.
+ * Patterns that differ only by constraints, like {@code /users/:id<int>}
+ * and {@code /users/:name}, are different routes; a constrained placeholder
+ * ranks above an unconstrained one.
+ *
+ * <p>Tokens are classified once, at construction: the kind of each token,
+ * the param names (interned, so that all patterns share the same strings)
+ * and the hash codes of constant tokens are kept in arrays, so that
+ * matching doesn't look at the first char of tokens or create strings.
  */
 final class PathPattern {
+    /** Kind of a constant token. */
+    static final byte STATIC = 0;
+
+    /** Kind of a {@code :placeholder} token. */
+    static final byte PARAM = 1;
+
+    /** Kind of the {@code :*} token, which can only be the last one. */
+    static final byte CATCH_ALL = 2;
+
+    private static final String[] NO_PLACEHOLDERS = new String[0];
+
     public static String removeSlashesAtBothEnds(String path) {
         ObjectUtil.checkNotNull(path, "path");
 
@@ -61,19 +91,134 @@ final class PathPattern {
     private final String pattern;
     private final String[] tokens;
 
+    // By token position: the kind, the param name (null for constants and :*),
+    // the constraint of params (the array is null if there are none, as in most
+    // patterns), and the hash code of constants (0 for others)
+    private final byte[] kinds;
+    private final String[] paramNames;
+    private final ParamConstraint[] constraints;
+    private final int[] staticHashes;
+
+    // For reverse routing, see appendPath: the path is literals[0], the value
+    // of placeholders[0], literals[1], ..., the value of placeholders[n - 1], literals[n]
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int numDistinctPlaceholders;
+
     /**
      * The pattern must not contain query, example:
-     * {@code constant1/constant2?foo=bar}.
+     * {@code constant1/constant2?foo=bar}. A {@code '?'} is only allowed in
+     * the constraints of placeholders.
      *
      * <p>The pattern will be stored without slashes at both ends.
      */
     public PathPattern(String pattern) {
-        if (pattern.contains("?")) {
-            throw new IllegalArgumentException("Path pattern must not contain query");
+        this.pattern = removeSlashesAtBothEnds(ObjectUtil.checkNotNull(pattern, "pattern"));
+        this.tokens = split(this.pattern);
+
+        kinds = new byte[tokens.length];
+        paramNames = new String[tokens.length];
+        ParamConstraint[] constraints = null;
+        staticHashes = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.length() == 0 || token.charAt(0) != ':') {
+                kinds[i] = STATIC;
+                staticHashes[i] = token.hashCode();
+            } else if (token.equals(":*") && i == tokens.length - 1) {
+                kinds[i] = CATCH_ALL;
+            } else {
+                kinds[i] = PARAM;
+
+                // split has checked that a constraint ends the token
+                int constraintBegin = token.indexOf('<');
+                String name = token.substring(1, (constraintBegin < 0) ? token.length() : constraintBegin);
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Path pattern has a placeholder without name: " + pattern);
+                }
+                paramNames[i] = name.intern();
+
+                if (constraintBegin > 0) {
+                    String spec = token.substring(constraintBegin + 1, token.length() - 1);
+                    if (name.equals("*")) {
+                        throw new IllegalArgumentException("Path pattern has a constraint on :*: " + pattern);
+                    }
+                    if (spec.isEmpty()) {
+                        throw new IllegalArgumentException("Path pattern has an empty param constraint: " + pattern);
+                    }
+                    if (constraints == null) {
+                        constraints = new ParamConstraint[tokens.length];
+                    }
+                    constraints[i] = ParamConstraint.of(spec);
+                }
+            }
         }
+        this.constraints = constraints;
 
-        this.pattern = removeSlashesAtBothEnds(ObjectUtil.checkNotNull(pattern, "pattern"));
-        this.tokens = this.pattern.split("/");
+        int numPlaceholders = 0;
+        for (byte kind : kinds) {
+            if (kind != STATIC) {
+                numPlaceholders++;
+            }
+        }
+
+        if (numPlaceholders == 0) {
+            // The most common case, no need to split the path for reverse routing
+            literals = new String[] { "/" + this.pattern };
+            placeholders = NO_PLACEHOLDERS;
+            numDistinctPlaceholders = 0;
+        } else {
+            List<String> literalList = new ArrayList<String>();
+            List<String> placeholderList = new ArrayList<String>();
+            StringBuilder literal = new StringBuilder(this.pattern.length() + 1);
+            for (int i = 0; i < tokens.length; i++) {
+                literal.append('/');
+                if (kinds[i] == STATIC) {
+                    literal.append(tokens[i]);
+                } else {
+                    literalList.add(literal.toString());
+                    literal.setLength(0);
+                    placeholderList.add((kinds[i] == PARAM) ? paramNames[i] : "*");
+                }
+            }
+            literalList.add(literal.toString());
+
+            literals = literalList.toArray(new String[literalList.size()]);
+            placeholders = placeholderList.toArray(new String[placeholderList.size()]);
+            numDistinctPlaceholders = (placeholders.length < 2) ?
+                    placeholders.length : new HashSet<String>(placeholderList).size();
+        }
+    }
+
+    // Same as pattern.split("/") for patterns without slashes at both ends,
+    // except that constraints are not split
+    private static String[] split(String pattern) {
+        List<String> ret = new ArrayList<String>();
+        int begin = 0;
+        for (int i = 0; i <= pattern.length(); i++) {
+            if (i == pattern.length() || pattern.charAt(i) == '/') {
+                ret.add(pattern.substring(begin, i));
+                begin = i + 1;
+            } else if (pattern.charAt(i) == '?') {
+                throw new IllegalArgumentException("Path pattern must not contain query: " + pattern);
+            } else if (pattern.charAt(i) == '<' && pattern.charAt(begin) == ':') {
+                i = constraintEnd(pattern, i);
+            }
+        }
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    // Returns the index of the '>' closing the constraint beginning at the
+    // index: the first one at the end of a token
+    private static int constraintEnd(String pattern, int begin) {
+        int end = pattern.indexOf('>', begin + 1);
+        while (end >= 0 && end + 1 < pattern.length() && pattern.charAt(end + 1) != '/') {
+            end = pattern.indexOf('>', end + 1);
+        }
+        if (end < 0) {
+            throw new IllegalArgumentException("Path pattern has an unclosed param constraint: " + pattern);
+        }
+        return end;
     }
 
     /**
@@ -85,91 +230,121 @@ final class PathPattern {
 
     /**
      * Returns the pattern given at the constructor, without slashes at both ends,
-     * and split by {@code '/'}.
+     * and split by {@code '/'} outside of constraints.
      */
     public String[] tokens() {
         return tokens;
     }
 
-    //--------------------------------------------------------------------------
-    // Instances of this class can be conveniently used as Map keys.
+    /**
+     * Returns the number of tokens.
+     */
+    public int numTokens() {
+        return kinds.length;
+    }
 
-    @Override
-    public int hashCode() {
-        return pattern.hashCode();
+    /**
+     * Returns {@link #STATIC}, {@link #PARAM} or {@link #CATCH_ALL}.
+     */
+    public byte kind(int index) {
+        return kinds[index];
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
+    /**
+     * Returns the interned param names by token position, {@code null} at the
+     * positions of constants and {@code :*}. The array must not be modified.
+     */
+    public String[] paramNames() {
+        return paramNames;
+    }
 
-        if (!(o instanceof PathPattern)) {
-            return false;
-        }
+    /**
+     * Returns the constraint of the param at the index, {@code null} if none.
+     */
+    public ParamConstraint constraint(int index) {
+        return (constraints == null) ? null : constraints[index];
+    }
 
-        PathPattern otherPathPattern = (PathPattern) o;
-        return pattern.equals(otherPathPattern.pattern);
+    /**
+     * Returns the same value as {@code tokens()[index].hashCode()},
+     * for a constant token.
+     */
+    public int staticHash(int index) {
+        return staticHashes[index];
+    }
+
+    /**
+     * Checks if the last token is {@code :*}.
+     */
+    public boolean isCatchAll() {
+        return kinds.length > 0 && kinds[kinds.length - 1] == CATCH_ALL;
     }
 
     //--------------------------------------------------------------------------
+    // Reverse routing.
 
     /**
-     * {@code params} will be updated with params embedded in the request path.
-     *
-     * <p>This method signature is designed so that {@code requestPathTokens} and {@code params}
-     * can be created only once then reused, to optimize for performance when a
-     * large number of path patterns need to be matched.
-     *
-     * @return {@code false} if not matched; in this case params should be reset
+     * Returns the number of placeholders, not counting duplicate names.
      */
-    public boolean match(String[] requestPathTokens, Map<String, String> params) {
-        if (tokens.length == requestPathTokens.length) {
-            for (int i = 0; i < tokens.length; i++) {
-                String key = tokens[i];
-                String value = requestPathTokens[i];
-
-                if (key.length() > 0 && key.charAt(0) == ':') {
-                    // This is a placeholder
-                    params.put(key.substring(1), value);
-                } else if (!key.equals(value)) {
-                    // This is a constant
-                    return false;
-                }
-            }
+    public int numDistinctPlaceholders() {
+        return numDistinctPlaceholders;
+    }
 
-            return true;
+    /**
+     * Checks if the pattern has a placeholder with the name.
+     */
+    public boolean hasPlaceholder(String name) {
+        for (String placeholder : placeholders) {
+            if (placeholder.equals(name)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        if (tokens.length > 0 &&
-                tokens[tokens.length - 1].equals(":*") &&
-                tokens.length <= requestPathTokens.length) {
-            // The first part
-            for (int i = 0; i < tokens.length - 2; i++) {
-                String key = tokens[i];
-                String value = requestPathTokens[i];
-
-                if (key.length() > 0 && key.charAt(0) == ':') {
-                    // This is a placeholder
-                    params.put(key.substring(1), value);
-                } else if (!key.equals(value)) {
-                    // This is a constant
-                    return false;
-                }
+    /**
+     * Checks if {@code params} has non-null values for all placeholders.
+     */
+    public boolean canFill(Map<Object, Object> params) {
+        for (String placeholder : placeholders) {
+            if (params.get(placeholder) == null) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            // The last :* part
-            StringBuilder b = new StringBuilder(requestPathTokens[tokens.length - 1]);
-            for (int i = tokens.length; i < requestPathTokens.length; i++) {
-                b.append('/');
-                b.append(requestPathTokens[i]);
-            }
-            params.put("*", b.toString());
+    /**
+     * Appends the path, with placeholders filled with {@code params}.
+     * {@link #canFill(Map)} must be {@code true}.
+     */
+    public void appendPath(StringBuilder b, Map<Object, Object> params) {
+        b.append(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            b.append(params.get(placeholders[i]).toString());
+            b.append(literals[i + 1]);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Instances of this class can be conveniently used as Map keys.
+
+    @Override
+    public int hashCode() {
+        return pattern.hashCode();
+    }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
             return true;
         }
 
-        return false;
+        if (!(o instanceof PathPattern)) {
+            return false;
+        }
+
+        PathPattern otherPathPattern = (PathPattern) o;
+        return pattern.equals(otherPathPattern.pattern);
     }
 }
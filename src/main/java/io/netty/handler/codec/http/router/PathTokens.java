@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Tokens of a request path, reusable for many requests.
+ *
+ * <p>{@link #tokenize(CharSequence)} scans the path part of the URI once and only
+ * records where each token begins and ends. Slashes at both ends are ignored,
+ * like {@link PathPattern#removeSlashesAtBothEnds(String)}.
+ *
+ * <p>The path is split before decoding, so that {@code /articles/123%2F456}
+ * has 2 tokens. A token is only decoded with
+ * {@link QueryStringDecoder#decodeComponent(String)} if it contains {@code '%'}
+ * or {@code '+'}, and only when its value is needed. Comparing and hashing
+ * other tokens is done directly on the URI, without creating strings.
+ *
+ * <p>The URI can be any {@link CharSequence}, like the {@link AsciiString}
+ * of an HTTP/2 {@code :path} header, or the bytes of a request line seen
+ * through {@link AsciiByteBufSequence}. Only tokens that are returned by
+ * {@link #get(int)} are converted to strings.
+ */
+final class PathTokens {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final FastThreadLocal<PathTokens> THREAD_LOCAL = new FastThreadLocal<PathTokens>() {
+        @Override
+        protected PathTokens initialValue() {
+            return new PathTokens();
+        }
+    };
+
+    /**
+     * Returns the instance owned by the current thread, for when there's no
+     * {@link RouteMatch} to get one from.
+     */
+    static PathTokens threadLocal() {
+        return THREAD_LOCAL.get();
+    }
+
+    private CharSequence uri;
+    private int size;
+
+    // Token i is uri.substring(begins[i], ends[i]) before decoding
+    private int[] begins = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private boolean[] escaped = new boolean[INITIAL_CAPACITY];
+
+    // Lazily created token values, see get(int)
+    private String[] values = new String[INITIAL_CAPACITY];
+
+    // Lazily computed hash codes, see hashCode(int); a token is hashed once
+    // even if several sections or branches look it up
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private boolean[] hashed = new boolean[INITIAL_CAPACITY];
+
+    // Results of the last satisfies(int, ParamConstraint) call for each token
+    private Object[] typedValues = new Object[INITIAL_CAPACITY];
+
+    /**
+     * Splits the path part of the URI.
+     */
+    public void tokenize(CharSequence uri) {
+        for (int i = 0; i < size; i++) {
+            values[i] = null;
+            hashed[i] = false;
+            typedValues[i] = null;
+        }
+        size = 0;
+        this.uri = uri;
+
+        int end = AsciiString.indexOf(uri, '?', 0);
+        if (end < 0) {
+            end = uri.length();
+        }
+
+        int begin = 0;
+        while (begin < end && uri.charAt(begin) == '/') {
+            begin++;
+        }
+        while (end > begin && uri.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        // Like "".split("/"), an empty path has one empty token
+        int tokenBegin = begin;
+        boolean tokenEscaped = false;
+        for (int i = begin; i < end; i++) {
+            char c = uri.charAt(i);
+            if (c == '/') {
+                add(tokenBegin, i, tokenEscaped);
+                tokenBegin = i + 1;
+                tokenEscaped = false;
+            } else if (c == '%' || c == '+') {
+                tokenEscaped = true;
+            }
+        }
+        add(tokenBegin, end, tokenEscaped);
+    }
+
+    private void add(int begin, int end, boolean isEscaped) {
+        if (size == begins.length) {
+            int newCapacity = size * 2;
+
+            int[] newBegins = new int[newCapacity];
+            System.arraycopy(begins, 0, newBegins, 0, size);
+            begins = newBegins;
+
+            int[] newEnds = new int[newCapacity];
+            System.arraycopy(ends, 0, newEnds, 0, size);
+            ends = newEnds;
+
+            boolean[] newEscaped = new boolean[newCapacity];
+            System.arraycopy(escaped, 0, newEscaped, 0, size);
+            escaped = newEscaped;
+
+            values = new String[newCapacity];
+            hashes = new int[newCapacity];
+            hashed = new boolean[newCapacity];
+            typedValues = new Object[newCapacity];
+        }
+
+        begins[size] = begin;
+        ends[size] = end;
+        escaped[size] = isEscaped;
+        size++;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the number of tokens, at least 1.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the decoded token. The string is created on first call.
+     */
+    public String get(int index) {
+        String ret = values[index];
+        if (ret == null) {
+            String encoded = substring(begins[index], ends[index]);
+            ret = escaped[index] ? QueryStringDecoder.decodeComponent(encoded) : encoded;
+            values[index] = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the same value as {@code get(index).hashCode()}.
+     */
+    public int hashCode(int index) {
+        if (hashed[index]) {
+            return hashes[index];
+        }
+
+        int h;
+        if (escaped[index]) {
+            h = get(index).hashCode();
+        } else {
+            h = 0;
+            for (int i = begins[index]; i < ends[index]; i++) {
+                h = 31 * h + uri.charAt(i);
+            }
+        }
+        hashes[index] = h;
+        hashed[index] = true;
+        return h;
+    }
+
+    /**
+     * Returns the same value as {@code get(index).equals(string)}.
+     */
+    public boolean equals(int index, String string) {
+        if (escaped[index]) {
+            return get(index).equals(string);
+        }
+
+        int begin = begins[index];
+        int length = ends[index] - begin;
+        return length == string.length() && AsciiString.regionMatches(uri, false, begin, string, 0, length);
+    }
+
+    /**
+     * Returns the same value as {@code get(index).equals(new String(chars, offset, length))}.
+     */
+    public boolean equals(int index, char[] chars, int offset, int length) {
+        CharSequence s;
+        int begin;
+        if (escaped[index]) {
+            s = get(index);
+            begin = 0;
+            if (s.length() != length) {
+                return false;
+            }
+        } else {
+            s = uri;
+            begin = begins[index];
+            if (ends[index] - begin != length) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(begin + i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the decoded token against the constraint. Unless the token is
+     * escaped, it is scanned directly on the URI, without creating a string.
+     * The converted value is kept for {@link #typedValue(int)}.
+     */
+    public boolean satisfies(int index, ParamConstraint constraint) {
+        Object value;
+        if (escaped[index]) {
+            String decoded = get(index);
+            value = constraint.parse(decoded, 0, decoded.length());
+        } else {
+            value = constraint.parse(uri, begins[index], ends[index]);
+        }
+        typedValues[index] = value;
+        return value != null;
+    }
+
+    /**
+     * Returns the value converted by the last {@link #satisfies(int, ParamConstraint)}
+     * call for the token, if the constraint is {@link ParamConstraint#typed typed}.
+     * When routing, the last check of a token is the one of the matched pattern,
+     * because the walk stops at the first match.
+     */
+    public Object typedValue(int index) {
+        return typedValues[index];
+    }
+
+    /**
+     * Returns decoded tokens from {@code fromIndex} to the last one, joined by {@code '/'}.
+     */
+    public String join(int fromIndex) {
+        int lastIndex = size - 1;
+        if (fromIndex == lastIndex) {
+            return get(fromIndex);
+        }
+
+        boolean anyEscaped = false;
+        for (int i = fromIndex; i <= lastIndex; i++) {
+            if (escaped[i]) {
+                anyEscaped = true;
+                break;
+            }
+        }
+
+        // The tokens are consecutive in the URI, separated by single slashes
+        if (!anyEscaped) {
+            return substring(begins[fromIndex], ends[lastIndex]);
+        }
+
+        StringBuilder b = new StringBuilder(ends[lastIndex] - begins[fromIndex]);
+        b.append(get(fromIndex));
+        for (int i = fromIndex + 1; i <= lastIndex; i++) {
+            b.append('/');
+            b.append(get(i));
+        }
+        return b.toString();
+    }
+
+    private String substring(int begin, int end) {
+        if (uri instanceof String) {
+            return ((String) uri).substring(begin, end);
+        }
+        if (uri instanceof AsciiString) {
+            return ((AsciiString) uri).toString(begin, end);
+        }
+        return uri.subSequence(begin, end).toString();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.internal.ObjectUtil;
+
+/**
+ * A route to add with {@link Router#addRoutes(java.util.Collection, java.util.concurrent.ExecutorService)}.
+ */
+public final class Route<T> {
+    private final HttpMethod method;
+    private final String pathPattern;
+    private final T target;
+
+    /**
+     * @param method {@code null} for any method, like {@link Router#ANY(String, Object)}
+     */
+    public Route(HttpMethod method, String pathPattern, T target) {
+        this.method = method;
+        this.pathPattern = ObjectUtil.checkNotNull(pathPattern, "pathPattern");
+        this.target = ObjectUtil.checkNotNull(target, "target");
+    }
+
+    /**
+     * Returns {@code null} for any method.
+     */
+    public HttpMethod method() {
+        return method;
+    }
+
+    public String pathPattern() {
+        return pathPattern;
+    }
+
+    public T target() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return ((method == null) ? "*" : method.name()) + ' ' + pathPattern + " -> " + target;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.AsciiString;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of routing results, keyed by HTTP method and request path
+ * (the URI without the query part), see {@link Router#routeCache(int)}.
+ *
+ * <p>The cache is a set-associative table: a key can only be in one of the
+ * {@link #WAYS} slots of its bucket. When the bucket is full, the entry
+ * accessed least often is the eviction candidate, but it is only replaced
+ * if the new key has been accessed more often than it (TinyLFU admission).
+ * Access frequencies are estimated by a count-min sketch of 4-bit counters,
+ * halved periodically so that old popularity fades. So one-off URIs, like
+ * those of a crawler, don't evict hot URIs.
+ *
+ * <p>Lookups and insertions don't take locks. Entries are immutable and
+ * published through an {@link AtomicReferenceArray}; frequency counters are
+ * updated without synchronization because a lost increment is harmless.
+ *
+ * <p>A cache belongs to one {@link CompiledRouter}, so it never contains
+ * results of routes that have since been added or removed.
+ */
+final class RouteCache<T> {
+    private static final int WAYS = 4;
+
+    private static final class Entry<T> {
+        final int hash;
+        final HttpMethod method;
+        final String path;
+
+        // null if there's no match and no notFound target
+        final T target;
+        final PathPattern pattern;
+        final String[] pathParamNames;
+        final String[] pathParamValues;
+
+        // Values converted by constraints, so that hits don't check them again
+        final Object[] pathParamTypedValues;
+
+        Entry(
+                int hash, HttpMethod method, String path,
+                T target, PathPattern pattern,
+                String[] pathParamNames, String[] pathParamValues, Object[] pathParamTypedValues) {
+            this.hash = hash;
+            this.method = method;
+            this.path = path;
+            this.target = target;
+            this.pattern = pattern;
+            this.pathParamNames = pathParamNames;
+            this.pathParamValues = pathParamValues;
+            this.pathParamTypedValues = pathParamTypedValues;
+        }
+
+        boolean matches(int hash, HttpMethod method, CharSequence uri, int pathEnd) {
+            return this.hash == hash &&
+                    (this.method == method || (this.method != null && this.method.equals(method))) &&
+                    path.length() == pathEnd &&
+                    AsciiString.regionMatches(uri, false, 0, path, 0, pathEnd);
+        }
+    }
+
+    private final AtomicReferenceArray<Entry<T>> table;
+    private final int bucketMask;
+    private final FrequencySketch sketch;
+
+    RouteCache(int maximumSize) {
+        int numBuckets = powerOfTwo(Math.max(1, maximumSize / WAYS));
+        table = new AtomicReferenceArray<Entry<T>>(numBuckets * WAYS);
+        bucketMask = numBuckets - 1;
+        sketch = new FrequencySketch(numBuckets * WAYS);
+    }
+
+    private static int powerOfTwo(int n) {
+        int ret = 1;
+        while (ret < n && ret < (1 << 30)) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the end of the path part of the URI.
+     */
+    static int pathEnd(CharSequence uri) {
+        int ret = AsciiString.indexOf(uri, '?', 0);
+        return (ret < 0) ? uri.length() : ret;
+    }
+
+    static int hash(HttpMethod method, CharSequence uri, int pathEnd) {
+        int h = (method == null) ? 0 : method.name().hashCode();
+        for (int i = 0; i < pathEnd; i++) {
+            h = 31 * h + uri.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Fills {@code match} (already reset) with the cached result, if any.
+     *
+     * @return {@code null} if not cached, otherwise whether there was a target
+     */
+    Boolean get(int hash, HttpMethod method, CharSequence uri, int pathEnd, RouteMatch<T> match) {
+        sketch.increment(hash);
+
+        int base = (hash & bucketMask) * WAYS;
+        for (int i = 0; i < WAYS; i++) {
+            Entry<T> entry = table.get(base + i);
+            if (entry != null && entry.matches(hash, method, uri, pathEnd)) {
+                if (entry.target == null) {
+                    return Boolean.FALSE;
+                }
+
+                match.matched(entry.pattern, entry.target);
+                for (int j = 0; j < entry.pathParamNames.length; j++) {
+                    match.addPathParam(
+                            entry.pathParamNames[j], entry.pathParamValues[j], entry.pathParamTypedValues[j]);
+                }
+                return Boolean.TRUE;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches the result in {@code match}, or does nothing if the key is not
+     * accessed more often than the entry it would replace.
+     */
+    void put(int hash, HttpMethod method, CharSequence uri, int pathEnd, RouteMatch<T> match, boolean matched) {
+        int base = (hash & bucketMask) * WAYS;
+
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < WAYS; i++) {
+            Entry<T> entry = table.get(base + i);
+            if (entry == null || entry.matches(hash, method, uri, pathEnd)) {
+                victim = base + i;
+                victimFrequency = -1;
+                break;
+            }
+
+            int frequency = sketch.frequency(entry.hash);
+            if (frequency < victimFrequency) {
+                victim = base + i;
+                victimFrequency = frequency;
+            }
+        }
+
+        if (victimFrequency >= 0 && sketch.frequency(hash) <= victimFrequency) {
+            return;
+        }
+
+        String path = uri.subSequence(0, pathEnd).toString();
+        Entry<T> entry;
+        if (matched) {
+            int numPathParams = match.numPathParams();
+            String[] names = new String[numPathParams];
+            String[] values = new String[numPathParams];
+            Object[] typedValues = new Object[numPathParams];
+            for (int i = 0; i < numPathParams; i++) {
+                names[i] = match.pathParamName(i);
+                values[i] = match.pathParamValue(i);
+                typedValues[i] = match.convertedPathParamValue(i);
+            }
+            entry = new Entry<T>(hash, method, path, match.target(), match.pattern, names, values, typedValues);
+        } else {
+            entry = new Entry<T>(hash, method, path, null, null, null, null, null);
+        }
+        table.set(victim, entry);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Count-min sketch with 4 rows of 4-bit counters packed in longs.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97cb3127, 0xb3a8cd47, 0x2c1b3c6d, 0x297a2d39 };
+
+        private final long[] table;
+        private final int indexMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            // 16 counters per long, 4 counters (one per row) per key
+            table = new long[powerOfTwo(Math.max(1, maximumSize / 4))];
+            indexMask = table.length * 16 - 1;
+            sampleSize = Math.max(10 * maximumSize, 16);
+        }
+
+        private int counterIndex(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 15;
+            return h & indexMask;
+        }
+
+        int frequency(int hash) {
+            int ret = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                int index = counterIndex(hash, row);
+                int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+                ret = Math.min(ret, count);
+            }
+            return ret;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = counterIndex(hash, row);
+                int shift = (index & 15) << 2;
+                long word = table[index >>> 4];
+                if (((word >>> shift) & 0xF) < 15) {
+                    table[index >>> 4] = word + (1L << shift);
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        // Halves all counters, so that the sketch follows changes in popularity
+        private void reset() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.internal.ObjectUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link CompiledRouter} to a file, and loads it back, so that a
+ * server with a very large route table can start serving without adding
+ * each route to a {@link Router} and compiling it again.
+ *
+ * <pre>
+ * {@code
+ * // When routes are generated, for example at deploy time
+ * RouteIndex.write(router.compile(), new File("routes.idx"), codec);
+ *
+ * // At startup
+ * CompiledRouter<Class> compiled = RouteIndex.load(new File("routes.idx"), codec);
+ * }
+ * </pre>
+ *
+ * <p>The file contains the matching trees of the snapshot in the layout
+ * used for matching, a few flat arrays per section, see {@link FlatRouteTree}.
+ * It is mapped into memory, and each array is copied out of it with a single
+ * bulk copy; the trees are not built again. Only the path patterns are
+ * parsed again, because reverse routing and metrics use them.
+ *
+ * <p>Targets are written by name, see {@link TargetCodec}. The size of the
+ * route cache is written; metrics and the profiler are given when loading.
+ *
+ * <p>The file starts with a format version. Files written by another version
+ * can't be loaded, they must be written again from the routes. To replace a
+ * file that other processes may be loading, write to another file and rename it.
+ */
+public final class RouteIndex {
+    private static final int MAGIC = 0x4e524958;  // "NRIX"
+    private static final int VERSION = 1;
+
+    /**
+     * Converts targets to names in the file, and names back to targets.
+     * Equal targets must have the same name.
+     */
+    public interface TargetCodec<T> {
+        String encode(T target);
+
+        T decode(String name);
+    }
+
+    /**
+     * For routers whose targets are strings.
+     */
+    public static final TargetCodec<String> STRING_TARGETS = new TargetCodec<String>() {
+        @Override
+        public String encode(String target) {
+            return target;
+        }
+
+        @Override
+        public String decode(String name) {
+            return name;
+        }
+    };
+
+    private RouteIndex() {
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Writes the snapshot to the file, replacing its content.
+     */
+    public static <T> void write(CompiledRouter<T> router, File file, TargetCodec<T> codec) throws IOException {
+        ObjectUtil.checkNotNull(router, "router");
+        ObjectUtil.checkNotNull(codec, "codec");
+
+        Writer<T> writer = new Writer<T>(codec);
+        writer.router(router);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            writer.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a snapshot written by {@link #write(CompiledRouter, File, TargetCodec)},
+     * without metrics and profiler.
+     */
+    public static <T> CompiledRouter<T> load(File file, TargetCodec<T> codec) throws IOException {
+        return load(file, codec, null, null);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #write(CompiledRouter, File, TargetCodec)}.
+     *
+     * @param metrics  {@code null} if there are no metrics, see {@link Router#metrics(RouteMetrics)}
+     * @param profiler {@code null} if not profiling, see {@link Router#profiler(RouteProfiler)}
+     * @throws IOException if the file can't be read, or has not been written by this version
+     */
+    public static <T> CompiledRouter<T> load(
+            File file, TargetCodec<T> codec, RouteMetrics metrics, RouteProfiler profiler) throws IOException {
+        ObjectUtil.checkNotNull(codec, "codec");
+
+        // The mapping stays valid after the file is closed
+        ByteBuffer buf;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        try {
+            int magic = buf.getInt();
+            int version = buf.getInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException("Not a route index of version " + VERSION + ": " + file);
+            }
+
+            CompiledRouter<T> ret = new Reader<T>(buf, codec).router(metrics, profiler);
+            if (buf.hasRemaining()) {
+                throw new IOException("Corrupt route index: " + file);
+            }
+            return ret;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated route index: " + file, e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt route index: " + file, e);
+        } catch (IllegalArgumentException e) {
+            // Invalid lengths, patterns, constraints or methods
+            throw new IOException("Corrupt route index: " + file, e);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    // All strings are written once in a table at the beginning, and referred
+    // to by index elsewhere (-1 for null), so the rest is written to a buffer first
+    private static final class Writer<T> {
+        private final TargetCodec<T> codec;
+
+        private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Writer(TargetCodec<T> codec) {
+            this.codec = codec;
+        }
+
+        void router(CompiledRouter<T> router) throws IOException {
+            out.writeInt(string(target(router.notFound())));
+            out.writeInt(router.routeCacheSize());
+
+            Map<HttpMethod, MethodlessRouter<T>> routers = router.routers();
+            out.writeInt(routers.size());
+            for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+                out.writeInt(string(entry.getKey().name()));
+                router(entry.getValue());
+            }
+            router(router.anyMethodRouter());
+
+            HttpMethod[] methodsByBit = router.methodsByBit();
+            out.writeInt(methodsByBit.length);
+            for (HttpMethod method : methodsByBit) {
+                out.writeInt(string(method.name()));
+            }
+            FlatRouteTree<Void> allowedMethodsTree = router.allowedMethodsTree();
+            if (allowedMethodsTree.hasChanges()) {
+                allowedMethodsTree = CompiledRouter.allowedMethodsTree(
+                        routers, router.anyMethodRouter(), methodsByBit);
+            }
+            tree(allowedMethodsTree, new IdentityHashMap<PathPattern, Integer>());
+        }
+
+        private void router(MethodlessRouter<T> router) throws IOException {
+            section(router.first());
+            section(router.other());
+            section(router.last());
+        }
+
+        private void section(OrderlessRouter<T> section) throws IOException {
+            Map<PathPattern, T> routes = section.routes();
+            Map<PathPattern, Integer> routeIndexes = new IdentityHashMap<PathPattern, Integer>(routes.size());
+
+            out.writeInt(routes.size());
+            for (Map.Entry<PathPattern, T> entry : routes.entrySet()) {
+                routeIndexes.put(entry.getKey(), routeIndexes.size());
+                out.writeInt(string(entry.getKey().pattern()));
+                out.writeInt(string(target(entry.getValue())));
+            }
+            tree(section.compactTree(), routeIndexes);
+        }
+
+        // Patterns and targets of terminals are written as indexes of routes of the section
+        private void tree(FlatRouteTree<?> tree, Map<PathPattern, Integer> routeIndexes) throws IOException {
+            ints(tree.nodes);
+            ints(tree.slotSegments);
+            ints(tree.slotChildren);
+            chars(tree.segmentChars);
+            ints(tree.segmentOffsets);
+            ints(tree.segmentHashes);
+
+            out.writeInt(tree.constraints.length);
+            for (ParamConstraint constraint : tree.constraints) {
+                out.writeInt(string(constraint.spec));
+            }
+            ints(tree.constrainedChildren);
+
+            out.writeInt(tree.patterns.length);
+            for (PathPattern pattern : tree.patterns) {
+                out.writeInt((pattern == null) ? -1 : routeIndexes.get(pattern));
+            }
+
+            if (tree.methods == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(tree.methods.length);
+                for (long methods : tree.methods) {
+                    out.writeLong(methods);
+                }
+            }
+        }
+
+        private String target(T target) {
+            return (target == null) ? null : ObjectUtil.checkNotNull(codec.encode(target), "name of " + target);
+        }
+
+        private int string(String string) {
+            if (string == null) {
+                return -1;
+            }
+
+            Integer ret = stringIndexes.get(string);
+            if (ret == null) {
+                ret = strings.size();
+                stringIndexes.put(string, ret);
+                strings.add(string);
+            }
+            return ret;
+        }
+
+        private void ints(int[] array) throws IOException {
+            out.writeInt(array.length);
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+
+        private void chars(char[] array) throws IOException {
+            out.writeInt(array.length);
+            for (char c : array) {
+                out.writeChar(c);
+            }
+        }
+
+        void writeTo(DataOutputStream file) throws IOException {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+
+            // String i is chars[offsets[i] .. offsets[i + 1])
+            file.writeInt(strings.size());
+            int offset = 0;
+            file.writeInt(offset);
+            for (String string : strings) {
+                offset += string.length();
+                file.writeInt(offset);
+            }
+            file.writeInt(offset);
+            for (String string : strings) {
+                file.writeChars(string);
+            }
+
+            out.flush();
+            bytes.writeTo(file);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final class Reader<T> {
+        private final ByteBuffer buf;
+        private final TargetCodec<T> codec;
+
+        private final int[] stringOffsets;
+        private final char[] stringChars;
+
+        // By string index, created on first use
+        private final String[] strings;
+        private final Object[] targets;
+
+        Reader(ByteBuffer buf, TargetCodec<T> codec) {
+            this.buf = buf;
+            this.codec = codec;
+
+            int numStrings = length(4);
+            stringOffsets = new int[numStrings + 1];
+            buf.asIntBuffer().get(stringOffsets);
+            buf.position(buf.position() + 4 * stringOffsets.length);
+            stringChars = chars();
+
+            strings = new String[numStrings];
+            targets = new Object[numStrings];
+        }
+
+        CompiledRouter<T> router(RouteMetrics metrics, RouteProfiler profiler) {
+            T notFound = target(buf.getInt());
+            int routeCacheSize = buf.getInt();
+
+            int numRouters = length(4);
+            Map<HttpMethod, MethodlessRouter<T>> routers = new HashMap<HttpMethod, MethodlessRouter<T>>(numRouters * 2);
+            for (int i = 0; i < numRouters; i++) {
+                HttpMethod method = HttpMethod.valueOf(string(buf.getInt()));
+                routers.put(method, router());
+            }
+            MethodlessRouter<T> anyMethodRouter = router();
+
+            HttpMethod[] methodsByBit = new HttpMethod[length(4)];
+            for (int i = 0; i < methodsByBit.length; i++) {
+                methodsByBit[i] = HttpMethod.valueOf(string(buf.getInt()));
+            }
+            FlatRouteTree<Void> allowedMethodsTree = tree(new PathPattern[0], new Object[0]);
+
+            return new CompiledRouter<T>(
+                    routers, anyMethodRouter, notFound, routeCacheSize, metrics, profiler,
+                    methodsByBit, allowedMethodsTree);
+        }
+
+        private MethodlessRouter<T> router() {
+            OrderlessRouter<T> first = section();
+            OrderlessRouter<T> other = section();
+            OrderlessRouter<T> last = section();
+            return new MethodlessRouter<T>(first, other, last);
+        }
+
+        private OrderlessRouter<T> section() {
+            int numRoutes = length(8);
+            PathPattern[] patterns = new PathPattern[numRoutes];
+            @SuppressWarnings("unchecked")
+            T[] targets = (T[]) new Object[numRoutes];
+            for (int i = 0; i < numRoutes; i++) {
+                patterns[i] = new PathPattern(string(buf.getInt()));
+                targets[i] = target(buf.getInt());
+            }
+            return new OrderlessRouter<T>(patterns, targets, this.<T>tree(patterns, targets));
+        }
+
+        private <U> FlatRouteTree<U> tree(PathPattern[] routePatterns, Object[] routeTargets) {
+            int[] nodes = ints();
+            int[] slotSegments = ints();
+            int[] slotChildren = ints();
+            char[] segmentChars = chars();
+            int[] segmentOffsets = ints();
+            int[] segmentHashes = ints();
+
+            ParamConstraint[] constraints = new ParamConstraint[length(4)];
+            for (int i = 0; i < constraints.length; i++) {
+                constraints[i] = ParamConstraint.of(string(buf.getInt()));
+            }
+            int[] constrainedChildren = ints();
+
+            int numTerminals = length(4);
+            PathPattern[] patterns = new PathPattern[numTerminals];
+            Object[] targets = new Object[numTerminals];
+            for (int i = 0; i < numTerminals; i++) {
+                int route = buf.getInt();
+                if (route >= 0) {
+                    patterns[i] = routePatterns[route];
+                    targets[i] = routeTargets[route];
+                }
+            }
+
+            long[] methods;
+            int numMethods = buf.getInt();
+            if (numMethods < 0) {
+                methods = null;
+            } else {
+                methods = new long[checkLength(numMethods, 8)];
+                buf.asLongBuffer().get(methods);
+                buf.position(buf.position() + 8 * numMethods);
+            }
+
+            return new FlatRouteTree<U>(
+                    nodes, slotSegments, slotChildren, segmentChars, segmentOffsets, segmentHashes,
+                    constraints, constrainedChildren, patterns, targets, methods);
+        }
+
+        private String string(int index) {
+            if (index < 0) {
+                return null;
+            }
+
+            String ret = strings[index];
+            if (ret == null) {
+                int offset = stringOffsets[index];
+                ret = new String(stringChars, offset, stringOffsets[index + 1] - offset);
+                strings[index] = ret;
+            }
+            return ret;
+        }
+
+        // A target is decoded once even if it has many routes
+        @SuppressWarnings("unchecked")
+        private T target(int index) {
+            if (index < 0) {
+                return null;
+            }
+
+            Object ret = targets[index];
+            if (ret == null) {
+                String name = string(index);
+                ret = ObjectUtil.checkNotNull(codec.decode(name), "target of " + name);
+                targets[index] = ret;
+            }
+            return (T) ret;
+        }
+
+        // Reads the number of elements of an array, each taking at least
+        // elementSize bytes in the file, so that a corrupt length is detected
+        // before allocating the array
+        private int length(int elementSize) {
+            return checkLength(buf.getInt(), elementSize);
+        }
+
+        private int checkLength(int length, int elementSize) {
+            if (length < 0 || length > buf.remaining() / elementSize) {
+                throw new IllegalArgumentException("Invalid length: " + length);
+            }
+            return length;
+        }
+
+        private int[] ints() {
+            int[] ret = new int[length(4)];
+            buf.asIntBuffer().get(ret);
+            buf.position(buf.position() + 4 * ret.length);
+            return ret;
+        }
+
+        private char[] chars() {
+            char[] ret = new char[length(2)];
+            buf.asCharBuffer().get(ret);
+            buf.position(buf.position() + 2 * ret.length);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map of {@code PathPattern -> Target} of a section, in the order routes were
+ * added, with the reverse index of patterns by target.
+ *
+ * <p>Until {@link #share()} is called, the map is modified in place. Then it
+ * is immutable: adding or removing a route returns a new map, which shares
+ * the maps of this one; only the routes added and removed since they were
+ * built are copied. So {@link OrderlessRouter} and its copies in snapshots
+ * can share a map, and a change doesn't copy all routes. When changes pile
+ * up, the new map is built again, and is not shared yet.
+ */
+final class RouteMap<T> {
+    // Changes kept before building the maps again, same as FlatRouteTree
+    private static final int MAX_CHANGES = 256;
+
+    // Only modified while not shared. Most targets have only one pattern,
+    // so their sets are singletons, which are much smaller.
+    private final Map<PathPattern, T> base;
+    private final Map<T, Set<PathPattern>> baseReverse;
+
+    // Never modified. A pattern removed from base, then added again, is in both.
+    private final Map<PathPattern, T> added;
+    private final Set<PathPattern> removed;
+
+    // Only used by the thread modifying the OrderlessRouter.
+    // Maps with changes are always shared, as their base is.
+    private boolean shared;
+
+    private final Map<PathPattern, T> view = new View();
+
+    /**
+     * Creates an empty map, not shared.
+     */
+    RouteMap() {
+        this(new LinkedHashMap<PathPattern, T>(), new HashMap<T, Set<PathPattern>>(),
+             Collections.<PathPattern, T>emptyMap(), Collections.<PathPattern>emptySet());
+    }
+
+    private RouteMap(Map<PathPattern, T> base, Map<T, Set<PathPattern>> baseReverse,
+                     Map<PathPattern, T> added, Set<PathPattern> removed) {
+        this.base = base;
+        this.baseReverse = baseReverse;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Creates a map of the routes, in the order of the arrays.
+     */
+    static <T> RouteMap<T> of(PathPattern[] patterns, T[] targets) {
+        Map<PathPattern, T> routes = new LinkedHashMap<PathPattern, T>(capacity(patterns.length));
+        for (int i = 0; i < patterns.length; i++) {
+            routes.put(patterns[i], targets[i]);
+        }
+        return build(routes);
+    }
+
+    private static <T> RouteMap<T> build(Map<PathPattern, T> routes) {
+        Map<T, Set<PathPattern>> reverse = new HashMap<T, Set<PathPattern>>(capacity(routes.size()));
+        for (Map.Entry<PathPattern, T> entry : routes.entrySet()) {
+            addReverse(reverse, entry.getValue(), entry.getKey());
+        }
+        return new RouteMap<T>(routes, reverse, Collections.<PathPattern, T>emptyMap(),
+                               Collections.<PathPattern>emptySet());
+    }
+
+    private static <T> void addReverse(Map<T, Set<PathPattern>> reverse, T target, PathPattern pathPattern) {
+        Set<PathPattern> patterns = reverse.get(target);
+        if (patterns == null) {
+            reverse.put(target, Collections.singleton(pathPattern));
+        } else {
+            if (patterns.size() == 1) {
+                // Keep the order, so that the best pattern for reverse routing is deterministic
+                patterns = new LinkedHashSet<PathPattern>(patterns);
+                reverse.put(target, patterns);
+            }
+            patterns.add(pathPattern);
+        }
+    }
+
+    // Of a map that holds the given number of entries without being resized
+    private static int capacity(int size) {
+        return size + size / 3 + 1;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns an unmodifiable view of the routes.
+     */
+    Map<PathPattern, T> asMap() {
+        return view;
+    }
+
+    int size() {
+        return base.size() - removed.size() + added.size();
+    }
+
+    T get(PathPattern pathPattern) {
+        T ret = added.get(pathPattern);
+        if (ret != null) {
+            return ret;
+        }
+        return removed.contains(pathPattern) ? null : base.get(pathPattern);
+    }
+
+    /**
+     * Returns the patterns leading to the target, in the order they were
+     * added, or {@code null} if there are none.
+     */
+    Set<PathPattern> patterns(T target) {
+        Set<PathPattern> basePatterns = baseReverse.get(target);
+        if (added.isEmpty() && removed.isEmpty()) {
+            return basePatterns;
+        }
+
+        Set<PathPattern> ret = new LinkedHashSet<PathPattern>();
+        if (basePatterns != null) {
+            for (PathPattern pattern : basePatterns) {
+                if (!removed.contains(pattern)) {
+                    ret.add(pattern);
+                }
+            }
+        }
+        for (Map.Entry<PathPattern, T> entry : added.entrySet()) {
+            if (entry.getValue().equals(target)) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret.isEmpty() ? null : ret;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Makes this map immutable, so that it can be shared with a copy of the
+     * router, and returns it.
+     */
+    RouteMap<T> share() {
+        shared = true;
+        return this;
+    }
+
+    /**
+     * Returns a map with the route added: this map if it is not shared.
+     * The pattern must not be in this map.
+     */
+    RouteMap<T> put(PathPattern pathPattern, T target) {
+        if (!shared) {
+            // Maps not shared have no changes
+            base.put(pathPattern, target);
+            addReverse(baseReverse, target, pathPattern);
+            return this;
+        }
+
+        Map<PathPattern, T> newAdded = new LinkedHashMap<PathPattern, T>(added);
+        newAdded.put(pathPattern, target);
+        return withChanges(newAdded, removed);
+    }
+
+    /**
+     * Returns a map without the route: this map if it is not shared.
+     * The pattern must be in this map.
+     */
+    RouteMap<T> remove(PathPattern pathPattern) {
+        if (!shared) {
+            T target = base.remove(pathPattern);
+
+            // Other patterns may still lead to the target
+            Set<PathPattern> patterns = baseReverse.get(target);
+            if (patterns.size() == 1) {
+                baseReverse.remove(target);
+            } else {
+                patterns.remove(pathPattern);
+            }
+            return this;
+        }
+
+        if (added.containsKey(pathPattern)) {
+            Map<PathPattern, T> newAdded = new LinkedHashMap<PathPattern, T>(added);
+            newAdded.remove(pathPattern);
+            return withChanges(newAdded, removed);
+        }
+
+        Set<PathPattern> newRemoved = new HashSet<PathPattern>(removed);
+        newRemoved.add(pathPattern);
+        return withChanges(added, newRemoved);
+    }
+
+    private RouteMap<T> withChanges(Map<PathPattern, T> added, Set<PathPattern> removed) {
+        if (added.size() + removed.size() > Math.min(MAX_CHANGES, base.size())) {
+            Map<PathPattern, T> routes = new LinkedHashMap<PathPattern, T>(capacity(size() + 1));
+            for (Map.Entry<PathPattern, T> entry : base.entrySet()) {
+                if (!removed.contains(entry.getKey())) {
+                    routes.put(entry.getKey(), entry.getValue());
+                }
+            }
+            routes.putAll(added);
+            return build(routes);
+        }
+
+        // The base is still shared
+        return new RouteMap<T>(base, baseReverse, added, removed).share();
+    }
+
+    //--------------------------------------------------------------------------
+
+    // Routes of base that have not been removed, then added routes
+    private final class View extends AbstractMap<PathPattern, T> {
+        private final Set<Map.Entry<PathPattern, T>> entrySet = new AbstractSet<Map.Entry<PathPattern, T>>() {
+            @Override
+            public Iterator<Map.Entry<PathPattern, T>> iterator() {
+                return removed.isEmpty() && added.isEmpty() ?
+                        Collections.unmodifiableMap(base).entrySet().iterator() : new ChangedIterator();
+            }
+
+            @Override
+            public int size() {
+                return RouteMap.this.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<PathPattern, T>> entrySet() {
+            return entrySet;
+        }
+
+        @Override
+        public int size() {
+            return RouteMap.this.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof PathPattern && RouteMap.this.get((PathPattern) key) != null;
+        }
+
+        @Override
+        public T get(Object key) {
+            return (key instanceof PathPattern) ? RouteMap.this.get((PathPattern) key) : null;
+        }
+    }
+
+    private final class ChangedIterator implements Iterator<Map.Entry<PathPattern, T>> {
+        private final Iterator<Map.Entry<PathPattern, T>> baseIterator = base.entrySet().iterator();
+        private final Iterator<Map.Entry<PathPattern, T>> addedIterator = added.entrySet().iterator();
+        private Map.Entry<PathPattern, T> next;
+
+        ChangedIterator() {
+            advance();
+        }
+
+        private void advance() {
+            while (baseIterator.hasNext()) {
+                Map.Entry<PathPattern, T> entry = baseIterator.next();
+                if (!removed.contains(entry.getKey())) {
+                    next = entry;
+                    return;
+                }
+            }
+            next = addedIterator.hasNext() ? addedIterator.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<PathPattern, T> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<PathPattern, T> ret = new AbstractMap.SimpleImmutableEntry<PathPattern, T>(next);
+            advance();
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutable and reusable result of {@link CompiledRouter#route(HttpMethod, CharSequence, RouteMatch)}.
+ *
+ * <p>Unlike {@link RouteResult}, path params are stored in parallel arrays
+ * of names and values, and the query part of the URI is only decoded when
+ * it is accessed. Once the arrays have grown to the number of params of the
+ * longest route, routing into the same instance doesn't allocate.
+ *
+ * <p>Instances are not thread safe. Use one instance per thread, or
+ * {@link CompiledRouter#routeMatch(HttpMethod, CharSequence)} which does that for you.
+ */
+public final class RouteMatch<T> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    // Shared by all routers, so that swapping routers doesn't create thread locals
+    private static final FastThreadLocal<RouteMatch<Object>> THREAD_LOCAL = new FastThreadLocal<RouteMatch<Object>>() {
+        @Override
+        protected RouteMatch<Object> initialValue() {
+            return new RouteMatch<Object>();
+        }
+    };
+
+    /**
+     * Returns the instance owned by the current thread.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> RouteMatch<T> threadLocal() {
+        // Safe because the target is always set by the router before being read
+        return (RouteMatch<T>) (RouteMatch<?>) THREAD_LOCAL.get();
+    }
+
+    // String or other char sequence, see uri()
+    private CharSequence uri;
+    private T target;
+
+    private String[] pathParamNames = new String[INITIAL_CAPACITY];
+    private String[] pathParamValues = new String[INITIAL_CAPACITY];
+
+    // Values converted by constraints like <int>, null for other params
+    private Object[] pathParamTypedValues = new Object[INITIAL_CAPACITY];
+    private int numPathParams;
+
+    // Lazily created, see decoder()
+    private QueryStringDecoder decoder;
+
+    // Reused for tokenizing the path of each request
+    final PathTokens pathTokens = new PathTokens();
+
+    // The matched pattern, null for notFound; and its stats if there are metrics
+    PathPattern pattern;
+    RouteStats stats;
+
+    /**
+     * Returns the original request URI.
+     */
+    public String uri() {
+        if (!(uri instanceof String)) {
+            uri = uri.toString();
+        }
+        return (String) uri;
+    }
+
+    public T target() {
+        return target;
+    }
+
+    //--------------------------------------------------------------------------
+    // Path params, without creating a map.
+
+    /**
+     * Returns the number of params embedded in the request path.
+     */
+    public int numPathParams() {
+        return numPathParams;
+    }
+
+    /**
+     * Returns the name of the path param at the index,
+     * which must be less than {@link #numPathParams()}.
+     */
+    public String pathParamName(int index) {
+        checkPathParamIndex(index);
+        return pathParamNames[index];
+    }
+
+    /**
+     * Returns the value of the path param at the index,
+     * which must be less than {@link #numPathParams()}.
+     */
+    public String pathParamValue(int index) {
+        checkPathParamIndex(index);
+        return pathParamValues[index];
+    }
+
+    /**
+     * Returns the value of the path param.
+     *
+     * @return {@code null} if there's no match
+     */
+    public String pathParam(String name) {
+        for (int i = 0; i < numPathParams; i++) {
+            if (pathParamNames[i].equals(name)) {
+                return pathParamValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the path param at the index, converted by the
+     * constraint of the placeholder: an {@link Integer} for {@code <int>},
+     * a {@link Long} for {@code <long>}, a {@link java.util.UUID} for
+     * {@code <uuid>}. For other params, this is the same as
+     * {@link #pathParamValue(int)}.
+     */
+    public Object typedPathParamValue(int index) {
+        checkPathParamIndex(index);
+        Object ret = pathParamTypedValues[index];
+        return (ret == null) ? pathParamValues[index] : ret;
+    }
+
+    /**
+     * Returns the value of the path param, converted like
+     * {@link #typedPathParamValue(int)}.
+     *
+     * @return {@code null} if there's no match
+     */
+    public Object typedPathParam(String name) {
+        for (int i = 0; i < numPathParams; i++) {
+            if (pathParamNames[i].equals(name)) {
+                Object ret = pathParamTypedValues[i];
+                return (ret == null) ? pathParamValues[i] : ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all params embedded in the request path, as a new map.
+     */
+    public Map<String, String> pathParams() {
+        Map<String, String> ret = new HashMap<String, String>(numPathParams * 2);
+        for (int i = 0; i < numPathParams; i++) {
+            ret.put(pathParamNames[i], pathParamValues[i]);
+        }
+        return ret;
+    }
+
+    private void checkPathParamIndex(int index) {
+        if (index < 0 || index >= numPathParams) {
+            throw new IndexOutOfBoundsException("index: " + index + " (expected: 0 <= index < " + numPathParams + ')');
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Query params, decoded on first access.
+
+    /**
+     * Returns the decoded request path.
+     */
+    public String decodedPath() {
+        return decoder().path();
+    }
+
+    /**
+     * Returns all params in the query part of the request URI.
+     */
+    public Map<String, List<String>> queryParams() {
+        return Collections.unmodifiableMap(decoder().parameters());
+    }
+
+    /**
+     * Extracts the first matching param in the query part of the request URI.
+     *
+     * @return {@code null} if there's no match
+     */
+    public String queryParam(String name) {
+        List<String> values = decoder().parameters().get(name);
+        return (values == null) ? null : values.get(0);
+    }
+
+    /**
+     * Extracts the path param first, then falls back to the first matching
+     * query param.
+     *
+     * @return {@code null} if there's no match
+     */
+    public String param(String name) {
+        String pathValue = pathParam(name);
+        return (pathValue == null) ? queryParam(name) : pathValue;
+    }
+
+    private QueryStringDecoder decoder() {
+        if (decoder == null) {
+            decoder = new QueryStringDecoder(uri());
+        }
+        return decoder;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates an immutable copy of this result.
+     */
+    public RouteResult<T> toRouteResult() {
+        if (decoder == null) {
+            return new RouteResult<T>(uri(), pathParams(), typedPathParams(), target);
+        }
+        return new RouteResult<T>(
+                uri(), decoder.path(), pathParams(), typedPathParams(), decoder.parameters(), target);
+    }
+
+    // Only the params that have a converted value
+    private Map<String, Object> typedPathParams() {
+        Map<String, Object> ret = null;
+        for (int i = 0; i < numPathParams; i++) {
+            if (pathParamTypedValues[i] != null) {
+                if (ret == null) {
+                    ret = new HashMap<String, Object>(numPathParams * 2);
+                }
+                ret.put(pathParamNames[i], pathParamTypedValues[i]);
+            }
+        }
+        return (ret == null) ? Collections.<String, Object>emptyMap() : ret;
+    }
+
+    //--------------------------------------------------------------------------
+    // Used while routing.
+
+    void reset(CharSequence uri) {
+        this.uri = uri;
+        target = null;
+        decoder = null;
+        pattern = null;
+        stats = null;
+
+        // Release references to the previous values
+        for (int i = 0; i < numPathParams; i++) {
+            pathParamValues[i] = null;
+            pathParamTypedValues[i] = null;
+        }
+        numPathParams = 0;
+    }
+
+    void target(T target) {
+        this.target = target;
+    }
+
+    void matched(PathPattern pattern, T target) {
+        this.pattern = pattern;
+        this.target = target;
+    }
+
+    // null if the value is not converted by a constraint
+    Object convertedPathParamValue(int index) {
+        return pathParamTypedValues[index];
+    }
+
+    void addPathParam(String name, String value) {
+        addPathParam(name, value, null);
+    }
+
+    /**
+     * @param typedValue {@code null} if the value is not converted by a constraint
+     */
+    void addPathParam(String name, String value, Object typedValue) {
+        if (numPathParams == pathParamNames.length) {
+            int newCapacity = numPathParams * 2;
+
+            String[] newNames = new String[newCapacity];
+            System.arraycopy(pathParamNames, 0, newNames, 0, numPathParams);
+            pathParamNames = newNames;
+
+            String[] newValues = new String[newCapacity];
+            System.arraycopy(pathParamValues, 0, newValues, 0, numPathParams);
+            pathParamValues = newValues;
+
+            Object[] newTypedValues = new Object[newCapacity];
+            System.arraycopy(pathParamTypedValues, 0, newTypedValues, 0, numPathParams);
+            pathParamTypedValues = newTypedValues;
+        }
+
+        pathParamNames[numPathParams] = name;
+        pathParamValues[numPathParams] = value;
+        pathParamTypedValues[numPathParams] = typedValue;
+        numPathParams++;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteMatch(target: " + target + ", pathParams: " + pathParams() + ", uri: " + uri + ')';
+    }
+}
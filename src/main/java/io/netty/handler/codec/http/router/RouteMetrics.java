@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Request counts and latencies by route, see {@link Router#metrics(RouteMetrics)}.
+ *
+ * <p>For each route (HTTP method and path pattern), the number of matched
+ * requests is counted. {@link RouterHandler} and {@link Http2RouterHandler}
+ * also record how long the target takes to handle the request head. Requests
+ * without a match, including those getting the {@code notFound} target, are
+ * counted together, and the time spent in routing is recorded for all requests.
+ *
+ * <p>Counters are striped ({@code LongAdder} on Java 8+) and latency
+ * histograms are striped by thread, so recording doesn't make event loop
+ * threads contend. Metrics are read with {@link #snapshot()}, for example
+ * periodically by an exporter thread.
+ *
+ * <p>Counts are kept by method and pattern, so they continue when the
+ * router is compiled again after routes have been added or removed. An
+ * instance can be shared by several routers.
+ */
+public final class RouteMetrics {
+    // Key: method + ' ' + pattern, see RouteStats
+    private final ConcurrentMap<String, RouteStats> routes = new ConcurrentHashMap<String, RouteStats>();
+
+    private final LongCounter notFound = PlatformDependent.newLongCounter();
+    private final LatencyHistogram routingLatency = new LatencyHistogram();
+
+    /**
+     * Returns the stats of the route, creating them if this is the first
+     * snapshot containing the route.
+     *
+     * @param method {@code "*"} for routes of any method
+     * @param pattern with a leading slash
+     */
+    RouteStats route(String method, String pattern) {
+        String key = method + ' ' + pattern;
+        RouteStats ret = routes.get(key);
+        if (ret == null) {
+            RouteStats stats = new RouteStats(method, pattern);
+            ret = routes.putIfAbsent(key, stats);
+            if (ret == null) {
+                ret = stats;
+            }
+        }
+        return ret;
+    }
+
+    void recordNotFound() {
+        notFound.increment();
+    }
+
+    void recordRouting(long nanos) {
+        routingLatency.record(nanos);
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the current values. Recording is not paused while they are
+     * read, so the snapshot is not atomic: a request may be counted in one
+     * value but not yet in another.
+     */
+    public Snapshot snapshot() {
+        List<RouteSnapshot> routeSnapshots = new ArrayList<RouteSnapshot>(routes.size());
+        for (RouteStats stats : routes.values()) {
+            routeSnapshots.add(new RouteSnapshot(
+                    stats.method, stats.pattern, stats.count.value(), stats.latency.snapshot()));
+        }
+        return new Snapshot(routeSnapshots, notFound.value(), routingLatency.snapshot());
+    }
+
+    /**
+     * Metrics of all routes, see {@link RouteMetrics#snapshot()}.
+     */
+    public static final class Snapshot {
+        private final List<RouteSnapshot> routes;
+        private final long notFound;
+        private final LatencySnapshot routingLatency;
+
+        Snapshot(List<RouteSnapshot> routes, long notFound, LatencySnapshot routingLatency) {
+            this.routes = Collections.unmodifiableList(routes);
+            this.notFound = notFound;
+            this.routingLatency = routingLatency;
+        }
+
+        /**
+         * Returns metrics of routes that have been in a compiled router,
+         * in no particular order.
+         */
+        public List<RouteSnapshot> routes() {
+            return routes;
+        }
+
+        /**
+         * Returns metrics of the route, or {@code null} if it has never been
+         * in a compiled router.
+         *
+         * @param method {@code "*"} for routes of any method
+         * @param pattern with a leading slash, like {@code "/articles/:id"}
+         */
+        public RouteSnapshot route(String method, String pattern) {
+            for (RouteSnapshot route : routes) {
+                if (route.method().equals(method) && route.pattern().equals(pattern)) {
+                    return route;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the number of requests without a match.
+         */
+        public long notFound() {
+            return notFound;
+        }
+
+        /**
+         * Returns the time spent in routing, for all requests.
+         */
+        public LatencySnapshot routingLatency() {
+            return routingLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot(routes: " + routes + ", notFound: " + notFound + ", routingLatency: " + routingLatency + ')';
+        }
+    }
+
+    /**
+     * Metrics of one route, see {@link RouteMetrics#snapshot()}.
+     */
+    public static final class RouteSnapshot {
+        private final String method;
+        private final String pattern;
+        private final long count;
+        private final LatencySnapshot latency;
+
+        RouteSnapshot(String method, String pattern, long count, LatencySnapshot latency) {
+            this.method = method;
+            this.pattern = pattern;
+            this.count = count;
+            this.latency = latency;
+        }
+
+        /**
+         * Returns the HTTP method, or {@code "*"} for routes of any method.
+         */
+        public String method() {
+            return method;
+        }
+
+        /**
+         * Returns the path pattern, with a leading slash.
+         */
+        public String pattern() {
+            return pattern;
+        }
+
+        /**
+         * Returns the number of requests matching this route.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns how long the target took to handle the request head, when
+         * dispatched by {@link RouterHandler} or {@link Http2RouterHandler}.
+         */
+        public LatencySnapshot latency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return method + ' ' + pattern + "(count: " + count + ", latency: " + latency + ')';
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Work done to route one sampled request, see {@link RouteProfiler}.
+ * Filled by {@link FlatRouteTree} while walking, then added to the profiler.
+ */
+final class RouteProfile {
+    // Tree nodes entered, including those of sections that didn't match
+    int nodesVisited;
+
+    // Nodes left without a match, so that the next branch had to be tried
+    int backtracks;
+
+    int sectionsTried;
+
+    // Patterns ending at a visited node, but shorter than the request path
+    final List<PathPattern> rejected = new ArrayList<PathPattern>(2);
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diagnostic mode that reports how much work routing takes, by route shape,
+ * for a sample of requests. See {@link Router#profiler(RouteProfiler)}.
+ *
+ * <p>For each sampled request, the router counts the prefix tree nodes it
+ * visits (one per attempt to match a path token), how often it has to
+ * backtrack to try another branch, how many sections ("first", "other",
+ * "last", then those of any method) it tries, and which patterns it passes
+ * but rejects because they are shorter than the request path. Results are
+ * grouped by the matched route ({@code "GET /articles/:id"}), or
+ * {@code "notFound"}.
+ *
+ * <p>Requests that are not sampled only cost a random number. Sampled
+ * requests bypass the {@link Router#routeCache(int) route cache}, so that
+ * the cost of matching is measured. At a sample rate of 0.01 (1%) the
+ * profiler can be left on in production.
+ */
+public final class RouteProfiler {
+    private static final String NOT_FOUND = "notFound";
+
+    private final double sampleRate;
+
+    // Key: method + ' ' + pattern, or NOT_FOUND
+    private final ConcurrentMap<String, ShapeStats> shapes = new ConcurrentHashMap<String, ShapeStats>();
+    private final ConcurrentMap<String, AtomicLong> rejected = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final class ShapeStats {
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong nodesVisited = new AtomicLong();
+        final AtomicLong backtracks = new AtomicLong();
+        final AtomicLong sectionsTried = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    /**
+     * @param sampleRate from 0 (never) to 1 (every request)
+     */
+    public RouteProfiler(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate: " + sampleRate + " (expected: 0-1)");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public double sampleRate() {
+        return sampleRate;
+    }
+
+    //--------------------------------------------------------------------------
+
+    boolean sample() {
+        return sampleRate >= 1 || (sampleRate > 0 && PlatformDependent.threadLocalRandom().nextDouble() < sampleRate);
+    }
+
+    /**
+     * @param pattern {@code null} if there's no match
+     */
+    void record(HttpMethod method, PathPattern pattern, RouteProfile profile, long nanos) {
+        // The request method, even if the route is for any method
+        String key = (pattern == null) ?
+                NOT_FOUND : ((method == null) ? "*" : method.name()) + " /" + pattern.pattern();
+        ShapeStats stats = shapes.get(key);
+        if (stats == null) {
+            ShapeStats newStats = new ShapeStats();
+            stats = shapes.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+
+        stats.samples.incrementAndGet();
+        stats.nodesVisited.addAndGet(profile.nodesVisited);
+        stats.backtracks.addAndGet(profile.backtracks);
+        stats.sectionsTried.addAndGet(profile.sectionsTried);
+        stats.nanos.addAndGet(nanos);
+        for (;;) {
+            long max = stats.maxNanos.get();
+            if (nanos <= max || stats.maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+
+        for (PathPattern rejectedPattern : profile.rejected) {
+            String rejectedKey = "/" + rejectedPattern.pattern();
+            AtomicLong count = rejected.get(rejectedKey);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = rejected.putIfAbsent(rejectedKey, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the route shapes with the highest mean routing time first.
+     */
+    public List<ShapeReport> slowest(int limit) {
+        List<ShapeReport> ret = shapes();
+        Collections.sort(ret, new Comparator<ShapeReport>() {
+            @Override
+            public int compare(ShapeReport a, ShapeReport b) {
+                return Double.compare(b.meanNanos(), a.meanNanos());
+            }
+        });
+        return (ret.size() > limit) ? new ArrayList<ShapeReport>(ret.subList(0, limit)) : ret;
+    }
+
+    /**
+     * Returns all route shapes seen in sampled requests, in no particular order.
+     */
+    public List<ShapeReport> shapes() {
+        List<ShapeReport> ret = new ArrayList<ShapeReport>(shapes.size());
+        for (Map.Entry<String, ShapeStats> entry : shapes.entrySet()) {
+            ShapeStats stats = entry.getValue();
+            ret.add(new ShapeReport(
+                    entry.getKey(), stats.samples.get(), stats.nodesVisited.get(), stats.backtracks.get(),
+                    stats.sectionsTried.get(), stats.nanos.get(), stats.maxNanos.get()));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns how many times each pattern (with a leading slash) was passed
+     * but rejected in sampled requests, because it is shorter than the request path.
+     */
+    public Map<String, Long> rejectedPatterns() {
+        Map<String, Long> ret = new HashMap<String, Long>(rejected.size() * 2);
+        for (Map.Entry<String, AtomicLong> entry : rejected.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().get());
+        }
+        return ret;
+    }
+
+    /**
+     * Clears all results, for example after a report has been exported.
+     */
+    public void reset() {
+        shapes.clear();
+        rejected.clear();
+    }
+
+    /**
+     * Routing work for the sampled requests of one route shape.
+     */
+    public static final class ShapeReport {
+        private final String shape;
+        private final long samples;
+        private final long nodesVisited;
+        private final long backtracks;
+        private final long sectionsTried;
+        private final long nanos;
+        private final long maxNanos;
+
+        ShapeReport(
+                String shape, long samples, long nodesVisited, long backtracks,
+                long sectionsTried, long nanos, long maxNanos) {
+            this.shape = shape;
+            this.samples = samples;
+            this.nodesVisited = nodesVisited;
+            this.backtracks = backtracks;
+            this.sectionsTried = sectionsTried;
+            this.nanos = nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Returns the HTTP method and the matched pattern, like
+         * {@code "GET /articles/:id"}, or {@code "notFound"}.
+         */
+        public String shape() {
+            return shape;
+        }
+
+        public long samples() {
+            return samples;
+        }
+
+        /**
+         * Returns the mean number of match attempts (tree nodes visited) per request.
+         */
+        public double meanNodesVisited() {
+            return mean(nodesVisited);
+        }
+
+        public double meanBacktracks() {
+            return mean(backtracks);
+        }
+
+        public double meanSectionsTried() {
+            return mean(sectionsTried);
+        }
+
+        public double meanNanos() {
+            return mean(nanos);
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        private double mean(long total) {
+            return (samples == 0) ? 0 : (double) total / samples;
+        }
+
+        @Override
+        public String toString() {
+            return shape + "(samples: " + samples + ", nodesVisited: " + meanNodesVisited() +
+                   ", backtracks: " + meanBacktracks() + ", sectionsTried: " + meanSectionsTried() +
+                   ", meanNanos: " + (long) meanNanos() + ", maxNanos: " + maxNanos + ')';
+        }
+    }
+}
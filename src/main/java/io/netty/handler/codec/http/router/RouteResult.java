@@ -16,6 +16,7 @@
 package io.netty.handler.codec.http.router;
 
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.util.internal.ObjectUtil;
 
 import java.util.ArrayList;
@@ -25,13 +26,22 @@ import java.util.Map;
 
 /**
  * Result of calling {@link Router#route(HttpMethod, String)}.
+ *
+ * <p>When created by the router, the decoded path and the query params are
+ * only decoded from the URI on first access, because many handlers never
+ * need them.
  */
 public class RouteResult<T> {
     private final String uri;
-    private final String decodedPath;
+
+    // Lazily decoded from uri if null, see decode()
+    private volatile String decodedPath;
+    private volatile Map<String, List<String>> queryParams;
 
     private final Map<String, String> pathParams;
-    private final Map<String, List<String>> queryParams;
+
+    // Only params converted by a constraint, see typedPathParam()
+    private final Map<String, Object> typedPathParams;
 
     private final T target;
 
@@ -42,14 +52,57 @@ public class RouteResult<T> {
             String uri, String decodedPath,
             Map<String, String> pathParams, Map<String, List<String>> queryParams,
             T target
+    ) {
+        this(uri, decodedPath, pathParams, Collections.<String, Object>emptyMap(), queryParams, target);
+    }
+
+    /**
+     * The maps will be wrapped in Collections.unmodifiableMap.
+     *
+     * @param typedPathParams values of path params converted by constraints, see {@link #typedPathParam(String)}
+     */
+    public RouteResult(
+            String uri, String decodedPath,
+            Map<String, String> pathParams, Map<String, Object> typedPathParams,
+            Map<String, List<String>> queryParams,
+            T target
     ) {
         this.uri = ObjectUtil.checkNotNull(uri, "uri");
         this.decodedPath = ObjectUtil.checkNotNull(decodedPath, "decodedPath");
         this.pathParams = Collections.unmodifiableMap(ObjectUtil.checkNotNull(pathParams, "pathParams"));
+        this.typedPathParams = Collections.unmodifiableMap(ObjectUtil.checkNotNull(typedPathParams, "typedPathParams"));
         this.queryParams = Collections.unmodifiableMap(ObjectUtil.checkNotNull(queryParams, "queryParams"));
         this.target = ObjectUtil.checkNotNull(target, "target");
     }
 
+    /**
+     * The decoded path and the query params will be decoded from the URI on first access.
+     * The map will be wrapped in Collections.unmodifiableMap.
+     */
+    public RouteResult(String uri, Map<String, String> pathParams, T target) {
+        this(uri, pathParams, Collections.<String, Object>emptyMap(), target);
+    }
+
+    /**
+     * The decoded path and the query params will be decoded from the URI on first access.
+     * The maps will be wrapped in Collections.unmodifiableMap.
+     *
+     * @param typedPathParams values of path params converted by constraints, see {@link #typedPathParam(String)}
+     */
+    public RouteResult(String uri, Map<String, String> pathParams, Map<String, Object> typedPathParams, T target) {
+        this.uri = ObjectUtil.checkNotNull(uri, "uri");
+        this.pathParams = Collections.unmodifiableMap(ObjectUtil.checkNotNull(pathParams, "pathParams"));
+        this.typedPathParams = Collections.unmodifiableMap(ObjectUtil.checkNotNull(typedPathParams, "typedPathParams"));
+        this.target = ObjectUtil.checkNotNull(target, "target");
+    }
+
+    // Decoding twice in case of races is harmless, the results are the same
+    private void decode() {
+        QueryStringDecoder decoder = new QueryStringDecoder(uri);
+        queryParams = Collections.unmodifiableMap(decoder.parameters());
+        decodedPath = decoder.path();
+    }
+
     /**
      * Returns the original request URI.
      */
@@ -61,7 +114,12 @@ public class RouteResult<T> {
      * Returns the decoded request path.
      */
     public String decodedPath() {
-        return decodedPath;
+        String ret = decodedPath;
+        if (ret == null) {
+            decode();
+            ret = decodedPath;
+        }
+        return ret;
     }
 
     /**
@@ -71,11 +129,29 @@ public class RouteResult<T> {
         return pathParams;
     }
 
+    /**
+     * Returns the value of the path param, converted by the constraint of the
+     * placeholder: an {@link Integer} for {@code :id<int>}, a {@link Long} for
+     * {@code :id<long>}, a {@link java.util.UUID} for {@code :id<uuid>}.
+     * For other params, this is the same as {@code pathParams().get(name)}.
+     *
+     * @return {@code null} if there's no match
+     */
+    public Object typedPathParam(String name) {
+        Object ret = typedPathParams.get(name);
+        return (ret == null) ? pathParams.get(name) : ret;
+    }
+
     /**
      * Returns all params in the query part of the request URI.
      */
     public Map<String, List<String>> queryParams() {
-        return queryParams;
+        Map<String, List<String>> ret = queryParams;
+        if (ret == null) {
+            decode();
+            ret = queryParams;
+        }
+        return ret;
     }
 
     public T target() {
@@ -91,7 +167,7 @@ public class RouteResult<T> {
      * @return {@code null} if there's no match
      */
     public String queryParam(String name) {
-        List<String> values = queryParams.get(name);
+        List<String> values = queryParams().get(name);
         return (values == null) ? null : values.get(0);
     }
 
@@ -112,7 +188,7 @@ public class RouteResult<T> {
      * @return Unmodifiable list; the list is empty if there's no match
      */
     public List<String> params(String name) {
-        List<String> values = queryParams.get(name);
+        List<String> values = queryParams().get(name);
         String value = pathParams.get(name);
 
         if (values == null) {
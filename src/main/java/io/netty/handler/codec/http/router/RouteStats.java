@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Counters of one route of {@link RouteMetrics}. A {@link CompiledRouter}
+ * finds them by the {@link PathPattern} instance that matched, so recording
+ * doesn't need to build the key.
+ */
+final class RouteStats {
+    final String method;
+    final String pattern;
+    final LongCounter count = PlatformDependent.newLongCounter();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    RouteStats(String method, String pattern) {
+        this.method = method;
+        this.pattern = pattern;
+    }
+}
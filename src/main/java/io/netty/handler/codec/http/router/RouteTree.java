@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+/**
+ * Prefix tree of path patterns, so that matching a request path costs time
+ * proportional to the number of path tokens, not to the number of routes.
+ * Patterns are added to this tree, then it is copied to a {@link FlatRouteTree}
+ * for matching.
+ *
+ * <p>Each edge is a whole path token:
+ * <ul>
+ * <li>constant tokens are edges to static children, looked up by the token
+ *     directly on the request URI (see {@link PathTokens}),</li>
+ * <li>placeholders with the same constraint (like {@code :id<int>}) at the
+ *     same position share one "constrained param" child; the constraint is
+ *     checked before entering it,</li>
+ * <li>all placeholders without constraint at the same position share one
+ *     "param" child, regardless of their names (names are taken from the
+ *     matched pattern),</li>
+ * <li>{@code :*} at the end of a pattern is stored as a "catch all" terminal
+ *     at the node of its parent.</li>
+ * </ul>
+ *
+ * <p>At each node, children are tried in this order: static, constrained
+ * params, param, catch all. If a branch doesn't lead to a match, the next one
+ * is tried. So the first match is also the most specific one: when comparing
+ * 2 matching patterns token by token, at the first position where they
+ * differ, a constant ranks above a constrained placeholder, which ranks above
+ * a placeholder, which ranks above {@code :*}. The result doesn't depend on
+ * the order the patterns were added, except between different constraints
+ * that both accept a token: the first added one wins.
+ *
+ * <p>Patterns having the same shape (like {@code /articles/:id} and
+ * {@code /articles/:name}) lead to the same terminal; only the first added
+ * one is kept there.
+ */
+final class RouteTree<T> {
+    // Read by FlatRouteTree
+    static final class Node<T> {
+        // Open addressing hash table of static children, keyed by token.
+        // Lazily created; the capacity is a power of 2 and the table is at most half full.
+        // Hash codes of tokens are kept so that most probes don't compare chars.
+        String[] staticTokens;
+        int[] staticHashes;
+        Node<T>[] staticNodes;
+        int numStatics;
+
+        // Params with constraints like :id<int>, tried in the order they were
+        // added, before the param without constraint. Lazily created.
+        ParamConstraint[] constraints;
+        Node<T>[] constrainedParams;
+
+        Node<T> param;
+
+        // The pattern ends at this node
+        PathPattern pattern;
+        T target;
+
+        // The pattern ends with ":*" right after this node
+        PathPattern catchAllPattern;
+        T catchAllTarget;
+
+        // Bit masks of HTTP methods of patterns ending here, see addMethods()
+        long methods;
+        long catchAllMethods;
+
+        Node<T> staticChild(String token, int hash) {
+            if (staticTokens == null) {
+                return null;
+            }
+
+            int mask = staticTokens.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String key = staticTokens[i];
+                if (key == null) {
+                    return null;
+                }
+                if (staticHashes[i] == hash && key.equals(token)) {
+                    return staticNodes[i];
+                }
+            }
+        }
+
+        Node<T> constrainedParam(ParamConstraint constraint) {
+            if (constraints != null) {
+                for (int i = 0; i < constraints.length; i++) {
+                    if (constraints[i].spec.equals(constraint.spec)) {
+                        return constrainedParams[i];
+                    }
+                }
+            }
+            return null;
+        }
+
+        // The constraint must not have been added
+        @SuppressWarnings("unchecked")
+        void addConstrainedParam(ParamConstraint constraint, Node<T> child) {
+            int n = (constraints == null) ? 0 : constraints.length;
+            ParamConstraint[] newConstraints = new ParamConstraint[n + 1];
+            Node<T>[] newParams = new Node[n + 1];
+            if (n > 0) {
+                System.arraycopy(constraints, 0, newConstraints, 0, n);
+                System.arraycopy(constrainedParams, 0, newParams, 0, n);
+            }
+            newConstraints[n] = constraint;
+            newParams[n] = child;
+            constraints = newConstraints;
+            constrainedParams = newParams;
+        }
+
+        // The token must not have been added
+        @SuppressWarnings("unchecked")
+        void addStaticChild(String token, int hash, Node<T> child) {
+            if (staticTokens == null) {
+                staticTokens = new String[2];
+                staticHashes = new int[2];
+                staticNodes = new Node[2];
+            } else if ((numStatics + 1) * 2 > staticTokens.length) {
+                String[] oldTokens = staticTokens;
+                int[] oldHashes = staticHashes;
+                Node<T>[] oldNodes = staticNodes;
+                staticTokens = new String[oldTokens.length * 2];
+                staticHashes = new int[oldTokens.length * 2];
+                staticNodes = new Node[oldTokens.length * 2];
+                for (int i = 0; i < oldTokens.length; i++) {
+                    if (oldTokens[i] != null) {
+                        putStaticChild(oldTokens[i], oldHashes[i], oldNodes[i]);
+                    }
+                }
+            }
+
+            putStaticChild(token, hash, child);
+            numStatics++;
+        }
+
+        private void putStaticChild(String token, int hash, Node<T> child) {
+            int mask = staticTokens.length - 1;
+            int i = spread(hash) & mask;
+            while (staticTokens[i] != null) {
+                i = (i + 1) & mask;
+            }
+            staticTokens[i] = token;
+            staticHashes[i] = hash;
+            staticNodes[i] = child;
+        }
+
+        // String hash codes of similar tokens often differ only in high bits
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private final Node<T> root = new Node<T>();
+
+    Node<T> root() {
+        return root;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Adds the pattern. This method does nothing if there's already a pattern
+     * with the same shape.
+     */
+    public void add(PathPattern pathPattern, T target) {
+        boolean catchAll = pathPattern.isCatchAll();
+        Node<T> node = node(pathPattern);
+
+        if (catchAll) {
+            if (node.catchAllPattern == null) {
+                node.catchAllPattern = pathPattern;
+                node.catchAllTarget = target;
+            }
+        } else {
+            if (node.pattern == null) {
+                node.pattern = pathPattern;
+                node.target = target;
+            }
+        }
+    }
+
+    /**
+     * Adds the bit mask of HTTP methods to the terminal of the pattern, for
+     * {@link FlatRouteTree#methods(PathTokens)}. Trees used for this are not used for routing.
+     */
+    public void addMethods(PathPattern pathPattern, long methods) {
+        if (pathPattern.isCatchAll()) {
+            node(pathPattern).catchAllMethods |= methods;
+        } else {
+            node(pathPattern).methods |= methods;
+        }
+    }
+
+    /**
+     * Returns the node at the end of the tokens before {@code :*}, if any,
+     * creating missing nodes.
+     */
+    private Node<T> node(PathPattern pathPattern) {
+        String[] tokens = pathPattern.tokens();
+        int numNodeTokens = pathPattern.isCatchAll() ? tokens.length - 1 : tokens.length;
+        Node<T> node = root;
+        for (int i = 0; i < numNodeTokens; i++) {
+            Node<T> child;
+            if (pathPattern.kind(i) == PathPattern.PARAM) {
+                ParamConstraint constraint = pathPattern.constraint(i);
+                if (constraint == null) {
+                    child = node.param;
+                    if (child == null) {
+                        child = new Node<T>();
+                        node.param = child;
+                    }
+                } else {
+                    child = node.constrainedParam(constraint);
+                    if (child == null) {
+                        child = new Node<T>();
+                        node.addConstrainedParam(constraint, child);
+                    }
+                }
+            } else {
+                String token = tokens[i];
+                int hash = pathPattern.staticHash(i);
+                child = node.staticChild(token, hash);
+                if (child == null) {
+                    child = new Node<T>();
+                    node.addStaticChild(token, hash, child);
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+}
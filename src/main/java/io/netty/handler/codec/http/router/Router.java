@@ -15,18 +15,21 @@
  */
 package io.netty.handler.codec.http.router;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpMethod;
-import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http2.Http2Headers;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Router that contains information about both route matching orders and
@@ -35,6 +38,19 @@ import java.util.Set;
  * <p>Routes are devided into 3 sections: "first", "last", and "other".
  * Routes in "first" are matched first, then in "other", then in "last".
  *
+ * <p>Within a section, more specific routes are matched first: at each path
+ * token, a constant is preferred over a {@code :placeholder}, which is
+ * preferred over {@code :*}. For example {@code /articles/new} is matched
+ * before {@code /articles/:id} even if both are in the same section, so most
+ * applications only need the "other" section.
+ *
+ * <p>A placeholder can have a constraint, checked while matching:
+ * {@code :id<int>}, {@code :id<long>}, {@code :id<uuid>}, or a regular
+ * expression like {@code :slug<[a-z-]+>}. A constrained placeholder is
+ * preferred over one without constraint, so {@code /users/:id<int>} and
+ * {@code /users/:name} can both be routes. The converted values are
+ * available with {@link RouteResult#typedPathParam(String)}.
+ *
  * <h3>Create router</h3>
  *
  * <p>Route targets can be any type. In the below example, targets are classes:
@@ -46,7 +62,8 @@ import java.util.Set;
  *   .GET      ("/articles/:id", ShowHandler.class)
  *   .POST     ("/articles",     CreateHandler.class)
  *   .GET      ("/download/:*",  DownloadHandler.class)  // ":*" must be the last token
- *   .GET_FIRST("/articles/new", NewHandler.class);      // This will be matched first
+ *   .GET      ("/articles/new", NewHandler.class)       // More specific than "/articles/:id"
+ *   .GET_FIRST("/:*",           MaintenanceHandler.class);  // This will be matched first
  * }
  * </pre>
  *
@@ -76,6 +93,46 @@ import java.util.Set;
  * <p>From the {@link RouteResult} you can extract params embedded in
  * the path and from the query part of the request URI.
  *
+ * <p>To avoid creating a result for each request, use
+ * {@link #route(HttpMethod, CharSequence, RouteMatch)} with your own reusable
+ * {@link RouteMatch}, or {@link #routeMatch(HttpMethod, CharSequence)} which
+ * reuses one per thread.
+ *
+ * <h3>Change routes while serving requests</h3>
+ *
+ * <p>A router is not thread safe while it is being modified. Once set up, it
+ * can be shared by many threads that only route with it: the first of their
+ * calls builds an immutable snapshot with {@link #compile()}, while holding
+ * the lock of the router, and the other calls use it. To keep modifying the
+ * routes, create snapshots with {@link #compile()} and publish them to the
+ * routing threads with {@link AtomicRouter}:
+ *
+ * <pre>
+ * {@code
+ * AtomicRouter<Class> current = new AtomicRouter<Class>(router.compile());
+ *
+ * // In event loop threads
+ * RouteResult<Class> routeResult = current.get().route(method, uri);
+ *
+ * // In a single admin thread
+ * router.removePathPattern("/articles/:id");
+ * current.set(router.compile());
+ * }
+ * </pre>
+ *
+ * <h3>Dispatch to handlers</h3>
+ *
+ * <p>If targets are {@link io.netty.channel.ChannelInboundHandler}s, put a
+ * {@link RouterHandler} in the pipeline: it routes each request once and
+ * passes the request and its content to the target. For HTTP/2 frames, use
+ * {@link Http2RouterHandler}, which routes with {@link #route(Http2Headers)}.
+ *
+ * <h3>Virtual hosts</h3>
+ *
+ * <p>To serve several host names, give a router to each host or wildcard
+ * subdomain with {@link HostRouter}. Both handlers above accept a
+ * {@link HostRouter}, and then route by host first.
+ *
  * <h3>404 Not Found target</h3>
  *
  * <p>Use {@link #notFound(Object)}. It will be used as the target
@@ -139,6 +196,9 @@ import java.util.Set;
  * <p>For {@code OPTIONS *}, use {@link #allAllowedMethods()}.
  */
 public class Router<T> {
+    // Number of patterns parsed by each task of addRoutes
+    private static final int PARSE_CHUNK_SIZE = 4096;
+
     private final Map<HttpMethod, MethodlessRouter<T>> routers =
             new HashMap<HttpMethod, MethodlessRouter<T>>();
 
@@ -147,6 +207,25 @@ public class Router<T> {
 
     private T notFound;
 
+    private int routeCacheSize;
+    private RouteMetrics metrics;
+    private RouteProfiler profiler;
+
+    // Cached result of compile(), reset when this router is modified.
+    // Built while holding the lock of this router, as the routing methods
+    // may compile from many threads once the routes have been set up.
+    private volatile CompiledRouter<T> compiled;
+
+    // Index of allowedMethods of the last snapshot, updated with each added
+    // or removed route, like the trees of sections (see OrderlessRouter), so
+    // that the next snapshot doesn't build it again; null to build it then
+    private HttpMethod[] methodsByBit;
+    private FlatRouteTree<Void> allowedMethodsTree;
+
+    // Host routers using this router, whose cached snapshots are reset when
+    // this router is modified, see HostRouter; null if none
+    private List<HostRouter<T>> hostRouters;
+
     //--------------------------------------------------------------------------
     // Design decision:
     // We do not allow access to routers and anyMethodRouter, because we don't
@@ -183,7 +262,11 @@ public class Router<T> {
      * has already been added.
      */
     public Router<T> addRouteFirst(HttpMethod method, String pathPattern, T target) {
-        getMethodlessRouter(method).addRouteFirst(pathPattern, target);
+        PathPattern p = new PathPattern(pathPattern);
+        if (getMethodlessRouter(method).addRouteFirst(p, target)) {
+            addMethods(method, p);
+        }
+        modified();
         return this;
     }
 
@@ -194,7 +277,11 @@ public class Router<T> {
      * has already been added.
      */
     public Router<T> addRoute(HttpMethod method, String pathPattern, T target) {
-        getMethodlessRouter(method).addRoute(pathPattern, target);
+        PathPattern p = new PathPattern(pathPattern);
+        if (getMethodlessRouter(method).addRoute(p, target)) {
+            addMethods(method, p);
+        }
+        modified();
         return this;
     }
 
@@ -205,16 +292,211 @@ public class Router<T> {
      * has already been added.
      */
     public Router<T> addRouteLast(HttpMethod method, String pathPattern, T target) {
-        getMethodlessRouter(method).addRouteLast(pathPattern, target);
+        PathPattern p = new PathPattern(pathPattern);
+        if (getMethodlessRouter(method).addRouteLast(p, target)) {
+            addMethods(method, p);
+        }
+        modified();
         return this;
     }
 
+    /**
+     * Adds many routes to the "other" section, like
+     * {@link #addRoute(HttpMethod, String, Object)} for each of them, with the
+     * work spread over the executor: the patterns are parsed in parallel,
+     * then the routes of each method are added in parallel.
+     *
+     * <p>A route whose pattern has already been added for its method, before
+     * or by an earlier route of the collection, is not added. Instead of being
+     * ignored, such routes are all returned at the end.
+     *
+     * <p>This router must not be used by other threads until this method returns.
+     *
+     * @return the routes that have not been added, in the order of {@code routes},
+     *         each with the target that its pattern already points to
+     * @throws IllegalArgumentException if a pattern is invalid; then no route is added
+     */
+    public Map<Route<T>, T> addRoutes(Collection<Route<T>> routes, ExecutorService executor)
+            throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        final Route<T>[] array = routes.toArray(new Route[routes.size()]);
+        final PathPattern[] patterns = new PathPattern[array.length];
+
+        List<Callable<Void>> parseTasks = new ArrayList<Callable<Void>>();
+        for (int begin = 0; begin < array.length; begin += PARSE_CHUNK_SIZE) {
+            final int from = begin;
+            final int to = Math.min(begin + PARSE_CHUNK_SIZE, array.length);
+            parseTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++) {
+                        try {
+                            patterns[i] = new PathPattern(array[i].pathPattern());
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Invalid route: " + array[i], e);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, parseTasks);
+
+        // Routers are created in this thread; then each task only modifies its own router
+        final List<MethodlessRouter<T>> groupRouters = new ArrayList<MethodlessRouter<T>>();
+        final int[] groups = new int[array.length];
+        for (int i = 0; i < array.length; i++) {
+            MethodlessRouter<T> router = getMethodlessRouter(array[i].method());
+            int group = groupRouters.indexOf(router);
+            if (group < 0) {
+                group = groupRouters.size();
+                groupRouters.add(router);
+            }
+            groups[i] = group;
+        }
+
+        final boolean[] rejected = new boolean[array.length];
+        List<Callable<Void>> addTasks = new ArrayList<Callable<Void>>(groupRouters.size());
+        for (int group = 0; group < groupRouters.size(); group++) {
+            final int thisGroup = group;
+            addTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    OrderlessRouter<T> section = groupRouters.get(thisGroup).other();
+                    for (int i = 0; i < array.length; i++) {
+                        if (groups[i] == thisGroup && !section.addRoute(patterns[i], array[i].target())) {
+                            rejected[i] = true;
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        modified();
+        allowedMethodsTree = null;
+        invokeAll(executor, addTasks);
+
+        Map<Route<T>, T> ret = new LinkedHashMap<Route<T>, T>();
+        for (int i = 0; i < array.length; i++) {
+            if (rejected[i]) {
+                ret.put(array[i], groupRouters.get(groups[i]).other().routes().get(patterns[i]));
+            }
+        }
+        return ret;
+    }
+
+    // Submits the tasks one by one (some executors run all tasks given to
+    // invokeAll in one thread), and waits for all of them
+    private static <V> List<V> invokeAll(ExecutorService executor, List<Callable<V>> tasks)
+            throws InterruptedException {
+        List<Future<V>> futures = new ArrayList<Future<V>>(tasks.size());
+        boolean done = false;
+        try {
+            for (Callable<V> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            List<V> ret = new ArrayList<V>(tasks.size());
+            for (Future<V> future : futures) {
+                try {
+                    ret.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+            done = true;
+            return ret;
+        } finally {
+            if (!done) {
+                for (Future<V> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
     /**
      * Sets the fallback target for use when there's no match at
      * {@link #route(HttpMethod, String)}.
      */
     public Router<T> notFound(T target) {
         this.notFound = target;
+        modified();
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of routing results cached by each snapshot
+     * of this router, 0 if results are not cached.
+     */
+    public int routeCache() {
+        return routeCacheSize;
+    }
+
+    /**
+     * Caches routing results of up to {@code maximumSize} pairs of HTTP method
+     * and request path (the URI without the query part) in each snapshot
+     * compiled from this router. A cached result is returned without
+     * tokenizing the path or matching patterns.
+     *
+     * <p>Useful when a few URIs get most requests. Paths are only admitted if
+     * they are requested more often than those they would evict, so scanning
+     * many different URIs doesn't evict the hot ones. Because the cache
+     * belongs to the snapshot, adding or removing routes invalidates it.
+     *
+     * @param maximumSize 0 (the default) to disable the cache
+     */
+    public Router<T> routeCache(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize: " + maximumSize + " (expected: >= 0)");
+        }
+        routeCacheSize = maximumSize;
+        modified();
+        return this;
+    }
+
+    /**
+     * Returns the metrics recorded by snapshots of this router, or {@code null}.
+     */
+    public RouteMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes snapshots compiled from this router record request counts and
+     * latencies in {@code metrics}, see {@link RouteMetrics}.
+     *
+     * @param metrics {@code null} (the default) to not record metrics
+     */
+    public Router<T> metrics(RouteMetrics metrics) {
+        this.metrics = metrics;
+        modified();
+        return this;
+    }
+
+    /**
+     * Returns the profiler used by snapshots of this router, or {@code null}.
+     */
+    public RouteProfiler profiler() {
+        return profiler;
+    }
+
+    /**
+     * Makes snapshots compiled from this router report the routing work
+     * of a sample of requests to {@code profiler}, see {@link RouteProfiler}.
+     *
+     * @param profiler {@code null} (the default) to not profile
+     */
+    public Router<T> profiler(RouteProfiler profiler) {
+        this.profiler = profiler;
+        modified();
         return this;
     }
 
@@ -238,72 +520,280 @@ public class Router<T> {
      * Removes the route specified by the path pattern.
      */
     public void removePathPattern(String pathPattern) {
-        for (MethodlessRouter<T> r : routers.values()) {
-            r.removePathPattern(pathPattern);
+        PathPattern p = new PathPattern(pathPattern);
+        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+            if (entry.getValue().removePathPattern(p)) {
+                removeMethods(entry.getKey(), entry.getValue(), p);
+            }
+        }
+        if (anyMethodRouter.removePathPattern(p)) {
+            removeMethods(null, anyMethodRouter, p);
         }
-        anyMethodRouter.removePathPattern(pathPattern);
+        modified();
     }
 
     /**
      * Removes all routes leading to the target.
      */
     public void removeTarget(T target) {
-        for (MethodlessRouter<T> r : routers.values()) {
-            r.removeTarget(target);
+        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+            for (PathPattern p : entry.getValue().removeTarget(target)) {
+                removeMethods(entry.getKey(), entry.getValue(), p);
+            }
+        }
+        for (PathPattern p : anyMethodRouter.removeTarget(target)) {
+            removeMethods(null, anyMethodRouter, p);
+        }
+        modified();
+    }
+
+    // Resets the cached snapshots of this router and of its host routers
+    private void modified() {
+        compiled = null;
+        if (hostRouters != null) {
+            for (HostRouter<T> hostRouter : hostRouters) {
+                hostRouter.routerModified();
+            }
+        }
+    }
+
+    void addHostRouter(HostRouter<T> hostRouter) {
+        if (hostRouters == null) {
+            hostRouters = new ArrayList<HostRouter<T>>(1);
+        }
+        if (!hostRouters.contains(hostRouter)) {
+            hostRouters.add(hostRouter);
+        }
+    }
+
+    void removeHostRouter(HostRouter<T> hostRouter) {
+        if (hostRouters != null) {
+            hostRouters.remove(hostRouter);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Updates of allowedMethodsTree. It is built again if the bits of methods
+    // change: when routes are added for a new method, or all routes of a
+    // method are removed.
+
+    private void addMethods(HttpMethod method, PathPattern pathPattern) {
+        if (allowedMethodsTree != null) {
+            long bit = methodBit(method);
+            allowedMethodsTree = (bit == 0) ? null : allowedMethodsTree.addMethods(pathPattern, bit);
+        }
+    }
+
+    // The bit is kept if other routes of the method have the same shape
+    private void removeMethods(HttpMethod method, MethodlessRouter<T> router, PathPattern pathPattern) {
+        if (allowedMethodsTree == null) {
+            return;
+        }
+
+        long bit = methodBit(method);
+        if (bit == 0 || (method != null && router.size() == 0)) {
+            allowedMethodsTree = null;
+        } else if (!router.hasShape(pathPattern)) {
+            allowedMethodsTree = allowedMethodsTree.removeMethods(pathPattern, bit);
         }
-        anyMethodRouter.removeTarget(target);
+    }
+
+    // Returns 0 if the method has no bit
+    private long methodBit(HttpMethod method) {
+        if (method == null) {
+            return CompiledRouter.ANY_METHOD_BIT;
+        }
+
+        for (int i = 0; i < methodsByBit.length; i++) {
+            if (methodsByBit[i].equals(method)) {
+                return 1L << i;
+            }
+        }
+        return 0;
     }
 
     //--------------------------------------------------------------------------
 
     /**
-     * If there's no match, returns the result with {@link #notFound(Object) notFound}
-     * as the target if it is set, otherwise returns {@code null}.
+     * Returns an immutable snapshot of the routes in this router, for use
+     * by many threads while this router may still be modified.
+     *
+     * <p>The snapshot is cached until this router is modified, and the routing
+     * methods of this router use it. So after the routes have been set up,
+     * calling the methods of this router costs the same as calling those of
+     * the snapshot. The snapshot is built while holding the lock of this
+     * router, so that the first routing calls of many threads build it once;
+     * but modifying this router while another thread is routing with it is
+     * not safe. See {@link AtomicRouter} for that.
+     *
+     * <p>Compiling again after a few routes have been added or removed doesn't
+     * index all routes again: the new snapshot shares the indexes of the
+     * previous one, with the changes kept aside, and so do the maps of routes.
+     * After many changes, they are built again.
      */
-    public RouteResult<T> route(HttpMethod method, String uri) {
-        MethodlessRouter<T> router = routers.get(method);
-        if (router == null) {
-            router = anyMethodRouter;
+    public CompiledRouter<T> compile() {
+        CompiledRouter<T> ret = compiled;
+        if (ret != null) {
+            return ret;
         }
 
-        QueryStringDecoder decoder = new QueryStringDecoder(uri);
-        String[] tokens = decodePathTokens(uri);
+        synchronized (this) {
+            ret = compiled;
+            if (ret == null) {
+                ret = new CompiledRouter<T>(
+                        CompiledRouter.copy(routers), new MethodlessRouter<T>(anyMethodRouter),
+                        notFound, routeCacheSize, metrics, profiler, methodsByBit, allowedMethodsTree);
+                compiled(ret);
+            }
+            return ret;
+        }
+    }
 
-        RouteResult<T> ret = router.route(uri, decoder.path(), tokens);
+    /**
+     * Like {@link #compile()}, with the work spread over the executor: the
+     * routes of each method are copied and indexed in parallel, and so is the
+     * index of {@link #allowedMethods(String)}.
+     *
+     * <p>This router must not be modified until this method returns.
+     */
+    public CompiledRouter<T> compile(ExecutorService executor) throws InterruptedException {
+        CompiledRouter<T> ret = compiled;
         if (ret != null) {
-            return new RouteResult<T>(uri, decoder.path(), ret.pathParams(), decoder.parameters(), ret.target());
+            return ret;
         }
 
-        if (router != anyMethodRouter) {
-            ret = anyMethodRouter.route(uri, decoder.path(), tokens);
-            if (ret != null) {
-                return new RouteResult<T>(uri, decoder.path(), ret.pathParams(), decoder.parameters(), ret.target());
+        synchronized (this) {
+            ret = compiled;
+            return (ret != null) ? ret : compileWith(executor);
+        }
+    }
+
+    private CompiledRouter<T> compileWith(ExecutorService executor) throws InterruptedException {
+        // Empty routers (all routes have been removed) are skipped, like by compile()
+        final List<HttpMethod> methods = new ArrayList<HttpMethod>(routers.size());
+        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
+            if (entry.getValue().size() > 0) {
+                methods.add(entry.getKey());
+            }
+        }
+        final HttpMethod[] methodsByBit =
+                (allowedMethodsTree == null) ? CompiledRouter.methodsByBit(methods) : this.methodsByBit;
+
+        // The copies of the routers in the order of methods, then the
+        // copy of anyMethodRouter, then the allowed methods tree if needed
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(methods.size() + 2);
+        for (final HttpMethod method : methods) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return new MethodlessRouter<T>(routers.get(method));
+                }
+            });
+        }
+        tasks.add(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return new MethodlessRouter<T>(anyMethodRouter);
             }
+        });
+        if (allowedMethodsTree == null) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return CompiledRouter.allowedMethodsTree(routers, anyMethodRouter, methodsByBit);
+                }
+            });
         }
+        List<Object> results = invokeAll(executor, tasks);
 
-        if (notFound != null) {
-            return new RouteResult<T>(uri, decoder.path(), Collections.<String, String>emptyMap(), decoder.parameters(), notFound);
+        Map<HttpMethod, MethodlessRouter<T>> copies = new HashMap<HttpMethod, MethodlessRouter<T>>(methods.size() * 2);
+        for (int i = 0; i < methods.size(); i++) {
+            @SuppressWarnings("unchecked")
+            MethodlessRouter<T> copy = (MethodlessRouter<T>) results.get(i);
+            copies.put(methods.get(i), copy);
         }
+        @SuppressWarnings("unchecked")
+        MethodlessRouter<T> anyMethodCopy = (MethodlessRouter<T>) results.get(methods.size());
+        @SuppressWarnings("unchecked")
+        FlatRouteTree<Void> allowedMethodsTree = (this.allowedMethodsTree != null) ?
+                this.allowedMethodsTree : (FlatRouteTree<Void>) results.get(methods.size() + 1);
+
+        CompiledRouter<T> ret = new CompiledRouter<T>(
+                copies, anyMethodCopy, notFound, routeCacheSize, metrics, profiler,
+                methodsByBit, allowedMethodsTree);
+        compiled(ret);
+        return ret;
+    }
 
-        return null;
+    // The indexes kept for the next snapshot are set before publishing this one
+    private void compiled(CompiledRouter<T> compiled) {
+        methodsByBit = compiled.methodsByBit();
+        allowedMethodsTree = compiled.allowedMethodsTree();
+        this.compiled = compiled;
     }
 
-    private String[] decodePathTokens(String uri) {
-        // Need to split the original URI (instead of QueryStringDecoder#path) then decode the tokens (components),
-        // otherwise /test1/123%2F456 will not match /test1/:p1
+    /**
+     * If there's no match, returns the result with {@link #notFound(Object) notFound}
+     * as the target if it is set, otherwise returns {@code null}.
+     */
+    public RouteResult<T> route(HttpMethod method, String uri) {
+        return compile().route(method, uri);
+    }
 
-        int qPos = uri.indexOf("?");
-        String encodedPath = (qPos >= 0) ? uri.substring(0, qPos) : uri;
+    /**
+     * Like {@link #route(HttpMethod, String)}, but writes the result to {@code match}.
+     *
+     * @see CompiledRouter#route(HttpMethod, CharSequence, RouteMatch)
+     */
+    public boolean route(HttpMethod method, CharSequence uri, RouteMatch<T> match) {
+        return compile().route(method, uri, match);
+    }
 
-        String[] encodedTokens = PathPattern.removeSlashesAtBothEnds(encodedPath).split("/");
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, with the URI
+     * given as the readable bytes of a buffer.
+     *
+     * @see CompiledRouter#route(HttpMethod, ByteBuf, RouteMatch)
+     */
+    public boolean route(HttpMethod method, ByteBuf uri, RouteMatch<T> match) {
+        return compile().route(method, uri, match);
+    }
 
-        String[] decodedTokens = new String[encodedTokens.length];
-        for (int i = 0; i < encodedTokens.length; i++) {
-            String encodedToken = encodedTokens[i];
-            decodedTokens[i] = QueryStringDecoder.decodeComponent(encodedToken);
-        }
+    /**
+     * Like {@link #route(HttpMethod, String)}, for an HTTP/2 request.
+     *
+     * @see CompiledRouter#route(Http2Headers, RouteMatch)
+     */
+    public RouteResult<T> route(Http2Headers headers) {
+        return compile().route(headers);
+    }
 
-        return decodedTokens;
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, for an HTTP/2 request.
+     *
+     * @see CompiledRouter#route(Http2Headers, RouteMatch)
+     */
+    public boolean route(Http2Headers headers, RouteMatch<T> match) {
+        return compile().route(headers, match);
+    }
+
+    /**
+     * Like {@link #route(HttpMethod, CharSequence, RouteMatch)}, with a {@link RouteMatch}
+     * owned by the current thread.
+     *
+     * @see CompiledRouter#routeMatch(HttpMethod, CharSequence)
+     */
+    public RouteMatch<T> routeMatch(HttpMethod method, CharSequence uri) {
+        return compile().routeMatch(method, uri);
+    }
+
+    /**
+     * Routes a batch of requests with one snapshot.
+     *
+     * @see CompiledRouter#routeAll(HttpMethod[], CharSequence[], RouteResult[], int)
+     */
+    public int routeAll(HttpMethod[] methods, CharSequence[] uris, RouteResult<T>[] results, int count) {
+        return compile().routeAll(methods, uris, results, count);
     }
 
     //--------------------------------------------------------------------------
@@ -315,44 +805,14 @@ public class Router<T> {
      * For {@code OPTIONS *}, use {@link #allAllowedMethods()} instead of this method.
      */
     public Set<HttpMethod> allowedMethods(String uri) {
-        QueryStringDecoder decoder = new QueryStringDecoder(uri);
-        String[] tokens = PathPattern.removeSlashesAtBothEnds(decoder.path()).split("/");
-
-        if (anyMethodRouter.anyMatched(tokens)) {
-            return allAllowedMethods();
-        }
-
-        Set<HttpMethod> ret = new HashSet<HttpMethod>(routers.size());
-        for (Map.Entry<HttpMethod, MethodlessRouter<T>> entry : routers.entrySet()) {
-            MethodlessRouter<T> router = entry.getValue();
-            if (router.anyMatched(tokens)) {
-                HttpMethod method = entry.getKey();
-                ret.add(method);
-            }
-        }
-
-        return ret;
+        return compile().allowedMethods(uri);
     }
 
     /**
      * Returns all methods that this router handles. For {@code OPTIONS *}.
      */
     public Set<HttpMethod> allAllowedMethods() {
-        if (anyMethodRouter.size() > 0) {
-            Set<HttpMethod> ret = new HashSet<HttpMethod>(9);
-            ret.add(HttpMethod.CONNECT);
-            ret.add(HttpMethod.DELETE);
-            ret.add(HttpMethod.GET);
-            ret.add(HttpMethod.HEAD);
-            ret.add(HttpMethod.OPTIONS);
-            ret.add(HttpMethod.PATCH);
-            ret.add(HttpMethod.POST);
-            ret.add(HttpMethod.PUT);
-            ret.add(HttpMethod.TRACE);
-            return ret;
-        } else {
-            return new HashSet<HttpMethod>(routers.keySet());
-        }
+        return compile().allAllowedMethods();
     }
 
     //--------------------------------------------------------------------------
@@ -372,20 +832,7 @@ public class Router<T> {
      * @return {@code null} if there's no match
      */
     public String uri(HttpMethod method, T target, Object... params) {
-        MethodlessRouter<T> router = (method == null) ? anyMethodRouter : routers.get(method);
-
-        // Fallback to anyMethodRouter if no router is found for the method
-        if (router == null) {
-            router = anyMethodRouter;
-        }
-
-        String ret = router.uri(target, params);
-        if (ret != null) {
-            return ret;
-        }
-
-        // Fallback to anyMethodRouter if the router was not anyMethodRouter and no path is found
-        return (router != anyMethodRouter) ? anyMethodRouter.uri(target, params) : null;
+        return compile().uri(method, target, params);
     }
 
     /**
@@ -402,14 +849,7 @@ public class Router<T> {
      * @return {@code null} if there's no match
      */
     public String uri(T target, Object... params) {
-        Collection<MethodlessRouter<T>> rs = routers.values();
-        for (MethodlessRouter<T> r : rs) {
-            String ret = r.uri(target, params);
-            if (ret != null) {
-                return ret;
-            }
-        }
-        return anyMethodRouter.uri(target, params);
+        return compile().uri(target, params);
     }
 
     //--------------------------------------------------------------------------
@@ -419,90 +859,8 @@ public class Router<T> {
      */
     @Override
     public String toString() {
-        // Step 1/2: Dump routers and anyMethodRouter in order
-        int numRoutes = size();
-        List<String> methods = new ArrayList<String>(numRoutes);
-        List<String> patterns = new ArrayList<String>(numRoutes);
-        List<String> targets = new ArrayList<String>(numRoutes);
-
-        // For router
-        for (Entry<HttpMethod, MethodlessRouter<T>> e : routers.entrySet()) {
-            HttpMethod method = e.getKey();
-            MethodlessRouter<T> router = e.getValue();
-            aggregateRoutes(method.toString(), router.first().routes(), methods, patterns, targets);
-            aggregateRoutes(method.toString(), router.other().routes(), methods, patterns, targets);
-            aggregateRoutes(method.toString(), router.last().routes(), methods, patterns, targets);
-        }
-
-        // For anyMethodRouter
-        aggregateRoutes("*", anyMethodRouter.first().routes(), methods, patterns, targets);
-        aggregateRoutes("*", anyMethodRouter.other().routes(), methods, patterns, targets);
-        aggregateRoutes("*", anyMethodRouter.last().routes(), methods, patterns, targets);
-
-        // For notFound
-        if (notFound != null) {
-            methods.add("*");
-            patterns.add("*");
-            targets.add(targetToString(notFound));
-        }
-
-        // Step 2/2: Format the List into aligned columns: <method> <patterns> <target>
-        int maxLengthMethod = maxLength(methods);
-        int maxLengthPattern = maxLength(patterns);
-        String format = "%-" + maxLengthMethod + "s  %-" + maxLengthPattern + "s  %s\n";
-        int initialCapacity = (maxLengthMethod + 1 + maxLengthPattern + 1 + 20) * methods.size();
-        StringBuilder b = new StringBuilder(initialCapacity);
-        for (int i = 0; i < methods.size(); i++) {
-            String method = methods.get(i);
-            String pattern = patterns.get(i);
-            String target = targets.get(i);
-            b.append(String.format(format, method, pattern, target));
-        }
-        return b.toString();
-    }
-
-    /**
-     * Helper for toString.
-     */
-    private static <T> void aggregateRoutes(
-            String method, Map<PathPattern, T> routes,
-            List<String> accMethods, List<String> accPatterns, List<String> accTargets) {
-        for (Map.Entry<PathPattern, T> entry : routes.entrySet()) {
-            accMethods.add(method);
-            accPatterns.add("/" + entry.getKey().pattern());
-            accTargets.add(targetToString(entry.getValue()));
-        }
+        return compile().toString();
     }
-
-    /**
-     * Helper for toString.
-     */
-    private static int maxLength(List<String> coll) {
-        int max = 0;
-        for (String e : coll) {
-            int length = e.length();
-            if (length > max) {
-                max = length;
-            }
-        }
-        return max;
-    }
-
-    /**
-     * Helper for toString.
-     *
-     * <p>For example, returns
-     * "io.netty.example.http.router.HttpRouterServerHandler" instead of
-     * "class io.netty.example.http.router.HttpRouterServerHandler"
-     */
-    private static String targetToString(Object target) {
-        if (target instanceof Class) {
-            return ((Class<?>) target).getName();
-        } else {
-            return target.toString();
-        }
-    }
-
     //--------------------------------------------------------------------------
 
     public Router<T> CONNECT(String path, T target) {
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.ObjectUtil;
+
+/**
+ * Inbound handler that routes each {@link HttpRequest} once, then dispatches
+ * the request and the {@link HttpContent} chunks that follow it to the
+ * handler that is the route target.
+ *
+ * <pre>
+ * {@code
+ * Router<ChannelInboundHandler> router = new Router<ChannelInboundHandler>()
+ *   .GET ("/articles/:id", showHandler)
+ *   .POST("/uploads",      uploadHandler)
+ *   .notFound(notFoundHandler);
+ *
+ * RouterHandler routerHandler = new RouterHandler(router);
+ *
+ * // For each channel
+ * pipeline.addLast(new HttpServerCodec(), routerHandler, new BadClientSilencer());
+ * }
+ * </pre>
+ *
+ * <p>Target handlers are not added to the pipeline. Their
+ * {@link ChannelInboundHandler#channelRead(ChannelHandlerContext, Object) channelRead}
+ * is called directly with the context of this handler, so dispatching costs
+ * a method call, and messages or exceptions fired by a target go to the
+ * handlers after this one. Because of that, targets must be {@link Sharable}
+ * and only implement {@code channelRead}: other events, like
+ * {@code handlerAdded} or {@code channelInactive}, are not passed to them.
+ *
+ * <p>Before the request is dispatched, its {@link RouteResult} is set to the
+ * channel attribute {@link #ROUTE_RESULT}, where the target can get the params.
+ * The attribute is kept until the next request of the channel.
+ *
+ * <p>Targets receive the content as it arrives, so large bodies can be
+ * streamed without being buffered. To receive a {@link io.netty.handler.codec.http.FullHttpRequest}
+ * instead, wrap the target of the route in an {@link AggregatedTarget}, and
+ * don't put an {@link io.netty.handler.codec.http.HttpObjectAggregator} in
+ * front of this handler.
+ *
+ * <p>If there's no match and the router doesn't have a
+ * {@link Router#notFound(Object) notFound} target, the request and its chunks
+ * are passed to the next handler.
+ */
+@Sharable
+public class RouterHandler extends ChannelInboundHandlerAdapter {
+    public static final AttributeKey<RouteResult<ChannelInboundHandler>> ROUTE_RESULT =
+            AttributeKey.valueOf(RouterHandler.class, "ROUTE_RESULT");
+
+    private final AtomicRouter<ChannelInboundHandler> router;
+
+    // Used instead of router when routing by host
+    private final AtomicHostRouter<ChannelInboundHandler> hostRouter;
+
+    /**
+     * Routes with a snapshot of the router, see {@link Router#compile()}.
+     * Later changes to the router are not seen by this handler.
+     */
+    public RouterHandler(Router<ChannelInboundHandler> router) {
+        this(new AtomicRouter<ChannelInboundHandler>(ObjectUtil.checkNotNull(router, "router").compile()));
+    }
+
+    /**
+     * Routes each request with the current snapshot of {@code router},
+     * so that routes can be changed while serving requests.
+     */
+    public RouterHandler(AtomicRouter<ChannelInboundHandler> router) {
+        this.router = ObjectUtil.checkNotNull(router, "router");
+        hostRouter = null;
+    }
+
+    /**
+     * Routes each request with a snapshot of the router of its host, see
+     * {@link HostRouter#compile()}. Later changes to the routers are not seen
+     * by this handler.
+     */
+    public RouterHandler(HostRouter<ChannelInboundHandler> hostRouter) {
+        this(new AtomicHostRouter<ChannelInboundHandler>(
+                ObjectUtil.checkNotNull(hostRouter, "hostRouter").compile()));
+    }
+
+    /**
+     * Routes each request with the current snapshot of {@code hostRouter}, so
+     * that hosts and routes can be changed while serving requests.
+     */
+    public RouterHandler(AtomicHostRouter<ChannelInboundHandler> hostRouter) {
+        router = null;
+        this.hostRouter = ObjectUtil.checkNotNull(hostRouter, "hostRouter");
+    }
+
+    /**
+     * Returns the router given to the constructor, or a holder of the snapshot;
+     * {@code null} if routing by host.
+     */
+    public AtomicRouter<ChannelInboundHandler> router() {
+        return router;
+    }
+
+    /**
+     * Returns the host router given to the constructor, or a holder of the
+     * snapshot; {@code null} if not routing by host.
+     */
+    public AtomicHostRouter<ChannelInboundHandler> hostRouter() {
+        return hostRouter;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        Attribute<RouteResult<ChannelInboundHandler>> attr = ctx.channel().attr(ROUTE_RESULT);
+
+        // FullHttpRequest is both, and is routed like a request
+        RouteResult<ChannelInboundHandler> routeResult;
+        if (msg instanceof HttpRequest) {
+            HttpRequest req = (HttpRequest) msg;
+            RouteMatch<ChannelInboundHandler> match = RouteMatch.threadLocal();
+            boolean matched = (hostRouter == null) ?
+                    router.get().route(req.method(), req.uri(), match) : hostRouter.get().route(req, match);
+            if (matched) {
+                routeResult = match.toRouteResult();
+                attr.set(routeResult);
+
+                RouteStats stats = match.stats;
+                if (stats != null) {
+                    dispatchTimed(ctx, msg, routeResult.target(), stats);
+                    return;
+                }
+            } else {
+                routeResult = null;
+                attr.set(null);
+            }
+        } else if (msg instanceof HttpContent) {
+            routeResult = attr.get();
+        } else {
+            routeResult = null;
+        }
+
+        if (routeResult == null) {
+            ctx.fireChannelRead(msg);
+        } else {
+            routeResult.target().channelRead(ctx, msg);
+        }
+    }
+
+    /**
+     * Dispatches and records the time taken by the target in the route metrics.
+     */
+    static void dispatchTimed(
+            ChannelHandlerContext ctx, Object msg, ChannelInboundHandler target, RouteStats stats) throws Exception {
+        long start = System.nanoTime();
+        try {
+            target.channelRead(ctx, msg);
+        } finally {
+            stats.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        AggregatedTarget.releasePending(ctx.channel());
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CompiledRouterTest {
+    private Router<String> router;
+
+    @Before
+    public void setUp() {
+        router = StringRouter.create();
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByChanges() {
+        CompiledRouter<String> compiled = router.compile();
+        assertSame(compiled, router.compile());
+
+        router.removeTarget("index");
+        router.GET("/new/route", "newRoute");
+        assertNotSame(compiled, router.compile());
+
+        assertEquals("index", compiled.route(GET, "/articles").target());
+        assertEquals("404",   compiled.route(GET, "/new/route").target());
+        assertEquals("/articles", compiled.uri("index"));
+
+        assertEquals("404",      router.route(GET, "/articles").target());
+        assertEquals("newRoute", router.route(GET, "/new/route").target());
+    }
+
+    @Test
+    public void testSameResultsAsRouter() {
+        CompiledRouter<String> compiled = router.compile();
+        assertEquals(router.size(),                compiled.size());
+        assertEquals(router.toString(),            compiled.toString());
+        assertEquals(router.allAllowedMethods(),   compiled.allAllowedMethods());
+        assertEquals(router.allowedMethods("/articles"), compiled.allowedMethods("/articles"));
+        assertEquals("/articles/123", compiled.uri(GET, "show", "id", 123));
+        assertEquals("post",          compiled.route(POST, "/articles").target());
+    }
+
+    @Test
+    public void testCompileInParallel() throws InterruptedException {
+        Router<String> other = StringRouter.create();
+        for (Router<String> r : Arrays.asList(router, other)) {
+            r.addRoute(HttpMethod.valueOf("PURGE"), "/cache/:*", "purge");
+            r.removePathPattern("/articles/:id");
+            r.removePathPattern("/articles/:id/:format");
+        }
+        CompiledRouter<String> sequential = other.compile();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        CompiledRouter<String> compiled;
+        try {
+            compiled = router.compile(executor);
+            assertSame(compiled, router.compile(executor));
+            assertSame(compiled, router.compile());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(sequential.size(),              compiled.size());
+        assertEquals(sequential.toString(),          compiled.toString());
+        assertEquals(sequential.allAllowedMethods(), compiled.allAllowedMethods());
+        assertEquals(sequential.allowedMethods("/articles"), compiled.allowedMethods("/articles"));
+        assertEquals("purge", compiled.route(HttpMethod.valueOf("PURGE"), "/cache/x").target());
+        assertEquals("404",   compiled.route(GET, "/articles/1").target());
+    }
+
+    @Test
+    public void testCompileAfterFewChanges() {
+        // Routes toggled one at a time, compiling in between
+        CompiledRouter<String> before = router.compile();
+        router.GET("/flags/:name", "flag");
+        router.compile();
+        router.removePathPattern("/articles/:id");
+        router.compile();
+        router.GET("/articles/:id", "show");
+        router.removeTarget("download");
+        router.compile();
+        router.addRoute(HttpMethod.PUT, "/articles/:id", "put");
+        router.removePathPattern("/flags/:name");
+        CompiledRouter<String> compiled = router.compile();
+
+        Router<String> other = StringRouter.create();
+        other.removePathPattern("/articles/:id");
+        other.GET("/articles/:id", "show");
+        other.removeTarget("download");
+        other.addRoute(HttpMethod.PUT, "/articles/:id", "put");
+        CompiledRouter<String> expected = other.compile();
+
+        assertEquals(expected.size(),              compiled.size());
+        assertEquals(expected.toString(),          compiled.toString());
+        assertEquals(expected.allAllowedMethods(), compiled.allAllowedMethods());
+        assertEquals(expected.allowedMethods("/articles/1"), compiled.allowedMethods("/articles/1"));
+        assertEquals(expected.allowedMethods("/flags/x"),    compiled.allowedMethods("/flags/x"));
+        assertEquals("/articles/123", compiled.uri(GET, "show", "id", 123));
+        assertEquals("put",   compiled.route(HttpMethod.PUT, "/articles/1").target());
+        assertEquals("show",  compiled.route(GET, "/articles/1").target());
+        assertEquals("new",   compiled.route(GET, "/articles/new").target());
+        assertEquals("404",   compiled.route(GET, "/flags/x").target());
+        assertEquals("404",   compiled.route(GET, "/download/x").target());
+
+        // Earlier snapshots are not affected
+        assertEquals("download", before.route(GET, "/download/x").target());
+        assertEquals("404",      before.route(HttpMethod.PUT, "/articles/1").target());
+    }
+
+    @Test
+    public void testDispatchByMethod() {
+        HttpMethod purge = HttpMethod.valueOf("PURGE");
+        router.addRoute(purge, "/cache/:*", "purge");
+        CompiledRouter<String> compiled = router.compile();
+
+        assertEquals("purge",     compiled.route(purge, "/cache/foo").target());
+        assertEquals("purge",     compiled.route(new HttpMethod("PURGE"), "/cache/foo").target());
+        assertEquals("show",      compiled.route(new HttpMethod("GET"), "/articles/123").target());
+        assertEquals("anyMethod", compiled.route(new HttpMethod("OTHER"), "/anyMethod").target());
+        assertEquals("anyMethod", compiled.route(null, "/anyMethod").target());
+        assertEquals("404",       compiled.route(GET, "/cache/foo").target());
+    }
+
+    @Test
+    public void testRouteCache() {
+        router.routeCache(100);
+        CompiledRouter<String> compiled = router.compile();
+        RouteMatch<String> match = new RouteMatch<String>();
+
+        // The second time, the result comes from the cache
+        for (int i = 0; i < 2; i++) {
+            assertTrue(compiled.route(GET, "/articles/123/json?x=" + i, match));
+            assertEquals("show", match.target());
+            assertEquals("123",  match.pathParam("id"));
+            assertEquals("json", match.pathParam("format"));
+            assertEquals(String.valueOf(i), match.queryParam("x"));
+
+            assertTrue(compiled.route(GET, "/download/foo/bar", match));
+            assertEquals("download", match.target());
+            assertEquals("foo/bar",  match.pathParam("*"));
+
+            assertEquals("post", compiled.route(POST, "/articles").target());
+            assertEquals("404",  compiled.route(GET, "/notFound").target());
+        }
+
+        // Adding a route invalidates results cached by the old snapshot
+        router.GET("/notFound", "found");
+        assertEquals("found", router.route(GET, "/notFound").target());
+        assertEquals("404",   compiled.route(GET, "/notFound").target());
+
+        router.routeCache(0);
+        assertEquals("found", router.route(GET, "/notFound").target());
+    }
+
+    @Test
+    public void testRouteCacheResistsScans() {
+        RouteCache<String> cache = new RouteCache<String>(64);
+        RouteMatch<String> match = new RouteMatch<String>();
+
+        // Most requests are for a few hot paths, others are each requested once
+        for (int i = 0; i < 10000; i++) {
+            String hot = "/articles/" + (i % 16);
+            String scanned = "/scanned/" + i;
+            access(cache, hot, match);
+            access(cache, scanned, match);
+        }
+
+        for (int i = 0; i < 16; i++) {
+            String hot = "/articles/" + i;
+            match.reset(hot);
+            assertNotNull(cache.get(RouteCache.hash(GET, hot, hot.length()), GET, hot, hot.length(), match));
+            assertEquals("show", match.target());
+            assertEquals(String.valueOf(i), match.pathParam("id"));
+        }
+
+        String post = "/articles/0";
+        match.reset(post);
+        assertNull(cache.get(RouteCache.hash(POST, post, post.length()), POST, post, post.length(), match));
+    }
+
+    private static void access(RouteCache<String> cache, String path, RouteMatch<String> match) {
+        int hash = RouteCache.hash(GET, path, path.length());
+        match.reset(path);
+        if (cache.get(hash, GET, path, path.length(), match) == null) {
+            match.target("show");
+            match.addPathParam("id", path.substring(path.lastIndexOf('/') + 1));
+            cache.put(hash, GET, path, path.length(), match, true);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRouteAll() {
+        RouteMetrics metrics = new RouteMetrics();
+        CompiledRouter<String> compiled = new Router<String>()
+                .GET("/articles/:id", "show")
+                .POST("/articles",    "post")
+                .metrics(metrics)
+                .compile();
+
+        HttpMethod[]   methods = { GET, POST, GET, GET, GET, POST };
+        CharSequence[] uris    = { "/articles/1", "/articles", "/articles/1", "/nope", "/articles/2", "/x" };
+        RouteResult<String>[] results = new RouteResult[8];
+
+        assertEquals(4, compiled.routeAll(methods, uris, results, 6));
+        assertEquals("show", results[0].target());
+        assertEquals("1",    results[0].pathParams().get("id"));
+        assertEquals("post", results[1].target());
+        assertSame(results[0], results[2]);
+        assertNull(results[3]);
+        assertEquals("2",    results[4].pathParams().get("id"));
+        assertNull(results[5]);
+
+        // Duplicates are counted like routed requests
+        RouteMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.route("GET", "/articles/:id").count());
+        assertEquals(2, snapshot.notFound());
+
+        // The same arrays for the next batch
+        uris[0] = "/articles/3";
+        assertEquals(1, compiled.routeAll(methods, uris, results, 1));
+        assertEquals("3", results[0].pathParams().get("id"));
+    }
+
+    @Test
+    public void testFirstUseFromManyThreads() throws Exception {
+        // Set up, then shared by threads that only route with it
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<CompiledRouter<String>> snapshots = new CopyOnWriteArrayList<CompiledRouter<String>>();
+        final AtomicReference<String> error = new AtomicReference<String>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (!"show".equals(router.route(GET, "/articles/123").target())) {
+                        error.set("Unexpected target");
+                    }
+                    snapshots.add(router.compile());
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(null, error.get());
+        assertEquals(4, snapshots.size());
+        for (CompiledRouter<String> compiled : snapshots) {
+            assertSame(snapshots.get(0), compiled);
+        }
+    }
+
+    @Test
+    public void testSwapWhileRouting() throws Exception {
+        final AtomicRouter<String> current = new AtomicRouter<String>(router.compile());
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<String> error = new AtomicReference<String>();
+
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                RouteMatch<String> match = new RouteMatch<String>();
+                while (!stop.get()) {
+                    CompiledRouter<String> compiled = current.get();
+                    compiled.route(GET, "/articles/123", match);
+
+                    // Both routes lead to "show", in all snapshots
+                    if (!"show".equals(match.target())) {
+                        error.set("Unexpected target: " + match.target());
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        for (int i = 0; i < 200; i++) {
+            if (i % 2 == 0) {
+                router.removePathPattern("/articles/:id");
+                router.GET("/articles/:articleId", "show");
+            } else {
+                router.removePathPattern("/articles/:articleId");
+                router.GET("/articles/:id", "show");
+            }
+            current.set(router.compile());
+        }
+
+        stop.set(true);
+        reader.join();
+        assertEquals(null, error.get());
+
+        CompiledRouter<String> compiled = current.get();
+        router.GET("/other", "other");
+        assertTrue(current.compareAndSet(compiled, router.compile()));
+        assertFalse(current.compareAndSet(compiled, router.compile()));
+    }
+}
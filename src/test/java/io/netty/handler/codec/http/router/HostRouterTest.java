@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HostRouterTest {
+    private HostRouter<String> hostRouter;
+
+    @Before
+    public void setUp() {
+        hostRouter = new HostRouter<String>()
+                .host("api.example.com",   new Router<String>().GET("/articles/:id", "api"))
+                .host("*.example.com",     new Router<String>().GET("/articles/:id", "tenant"))
+                .host("*.eu.example.com",  new Router<String>().GET("/articles/:id", "euTenant"))
+                .host("example.com",       new Router<String>().GET("/articles/:id", "main"))
+                .defaultRouter(new Router<String>().GET("/articles/:id", "default"));
+    }
+
+    @Test
+    public void testMostSpecificHost() {
+        assertEquals("api",      target("api.example.com"));
+        assertEquals("tenant",   target("acme.example.com"));
+        assertEquals("tenant",   target("a.b.example.com"));
+        assertEquals("euTenant", target("acme.eu.example.com"));
+        assertEquals("tenant",   target("eu.example.com"));
+        assertEquals("main",     target("example.com"));
+        assertEquals("default",  target("example.org"));
+        assertEquals("default",  target("com"));
+        assertEquals("default",  target(""));
+        assertEquals("default",  target(null));
+    }
+
+    @Test
+    public void testHostIgnoresCasePortAndTrailingDot() {
+        assertEquals("api",     target("API.Example.COM"));
+        assertEquals("api",     target("api.example.com:8080"));
+        assertEquals("api",     target("api.example.com.:8080"));
+        assertEquals("default", target("[::1]:8080"));
+        assertEquals("123",     hostRouter.route("Acme.example.com", GET, "/articles/123").pathParams().get("id"));
+    }
+
+    @Test
+    public void testNoDefaultRouter() {
+        hostRouter.defaultRouter(null);
+        RouteMatch<String> match = new RouteMatch<String>();
+        assertFalse(hostRouter.compile().route("example.org", GET, "/articles/123", match));
+        assertNull(match.target());
+        assertNull(hostRouter.route("example.org", GET, "/articles/123"));
+    }
+
+    @Test
+    public void testCompileIsCachedUntilModified() {
+        Router<String> router = new Router<String>().GET("/", "index");
+        hostRouter.host("www.example.com", router);
+        CompiledHostRouter<String> compiled = hostRouter.compile();
+        assertSame(compiled, hostRouter.compile());
+
+        // A router of a host is modified
+        router.GET("/about", "about");
+        CompiledHostRouter<String> compiled2 = hostRouter.compile();
+        assertNotSame(compiled, compiled2);
+        assertEquals("about", compiled2.route("www.example.com", GET, "/about").target());
+
+        hostRouter.removeHost("www.example.com");
+        assertEquals("tenant", target("www.example.com"));
+
+        // A removed router no longer resets the snapshot
+        CompiledHostRouter<String> compiled3 = hostRouter.compile();
+        router.GET("/contact", "contact");
+        assertSame(compiled3, hostRouter.compile());
+
+        // A router replaced for a host still resets it while it is the default router
+        Router<String> defaultRouter = hostRouter.defaultRouter();
+        hostRouter.host("www.example.com", defaultRouter);
+        hostRouter.host("www.example.com", router);
+        compiled3 = hostRouter.compile();
+        defaultRouter.GET("/contact", "contact");
+        assertNotSame(compiled3, hostRouter.compile());
+        assertEquals("contact", hostRouter.route("example.org", GET, "/contact").target());
+    }
+
+    @Test
+    public void testToString() {
+        HostRouter<String> router = new HostRouter<String>()
+                .host("api.example.com", new Router<String>().GET("/", "api"))
+                .defaultRouter(new Router<String>().GET("/", "default"));
+        assertEquals(
+                "Host: api.example.com\nGET  /  api\n" +
+                "Host: (default)\nGET  /  default\n",
+                router.compile().toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHostPattern() {
+        hostRouter.host("api.*.example.com", new Router<String>());
+    }
+
+    @Sharable
+    private static class Target extends ChannelInboundHandlerAdapter {
+        final List<String> hosts = new ArrayList<String>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            hosts.add(((HttpRequest) msg).headers().get(HttpHeaderNames.HOST));
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Test
+    public void testRouterHandler() {
+        Target api = new Target();
+        Target tenant = new Target();
+        HostRouter<ChannelInboundHandler> router = new HostRouter<ChannelInboundHandler>()
+                .host("api.example.com", new Router<ChannelInboundHandler>().GET("/", api))
+                .host("*.example.com",   new Router<ChannelInboundHandler>().GET("/", tenant));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+        channel.writeInbound(request("api.example.com"));
+        channel.writeInbound(request("acme.example.com"));
+        channel.writeInbound(request("example.org"));
+
+        assertEquals(1, api.hosts.size());
+        assertEquals("acme.example.com", tenant.hosts.get(0));
+
+        // No router for the host, passed to the next handler
+        HttpRequest passed = channel.readInbound();
+        assertEquals("example.org", passed.headers().get(HttpHeaderNames.HOST));
+        channel.finish();
+    }
+
+    @Test
+    public void testSwapHostsWhileServing() {
+        Target api = new Target();
+        Target beta = new Target();
+        HostRouter<ChannelInboundHandler> router = new HostRouter<ChannelInboundHandler>()
+                .host("api.example.com", new Router<ChannelInboundHandler>().GET("/", api));
+        AtomicHostRouter<ChannelInboundHandler> current = new AtomicHostRouter<ChannelInboundHandler>(router.compile());
+
+        RouterHandler handler = new RouterHandler(current);
+        assertSame(current, handler.hostRouter());
+        assertNull(handler.router());
+
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        channel.writeInbound(request("beta.example.com"));
+        HttpRequest passed = channel.readInbound();
+        assertEquals("beta.example.com", passed.headers().get(HttpHeaderNames.HOST));
+
+        // A host is added to the running handler
+        router.host("beta.example.com", new Router<ChannelInboundHandler>().GET("/", beta));
+        current.set(router.compile());
+        channel.writeInbound(request("beta.example.com"));
+        channel.writeInbound(request("api.example.com"));
+
+        assertEquals(1, beta.hosts.size());
+        assertEquals(1, api.hosts.size());
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+    private String target(String host) {
+        RouteResult<String> routed = hostRouter.route(host, GET, "/articles/123");
+        return (routed == null) ? null : routed.target();
+    }
+
+    private static HttpRequest request(String host) {
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, GET, "/");
+        req.headers().set(HttpHeaderNames.HOST, host);
+        return req;
+    }
+}
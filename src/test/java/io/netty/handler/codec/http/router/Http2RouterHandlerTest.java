@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2StreamClosedEvent;
+import io.netty.handler.codec.http2.Http2StreamFrame;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Http2RouterHandlerTest {
+    @Sharable
+    private static class RecordingHandler extends ChannelInboundHandlerAdapter {
+        final List<Object> frames = new ArrayList<Object>();
+        final List<RouteResult<ChannelInboundHandler>> routeResults = new ArrayList<RouteResult<ChannelInboundHandler>>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            frames.add(msg);
+            routeResults.add(ctx.channel().attr(RouterHandler.ROUTE_RESULT).get());
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private RecordingHandler show;
+    private RecordingHandler upload;
+    private Router<ChannelInboundHandler> router;
+
+    @Before
+    public void setUp() {
+        show = new RecordingHandler();
+        upload = new RecordingHandler();
+        router = new Router<ChannelInboundHandler>()
+                .GET("/articles/:id", show)
+                .POST("/uploads", upload);
+    }
+
+    private static Http2Headers headers(String method, String path) {
+        return new DefaultHttp2Headers().method(new AsciiString(method)).path(new AsciiString(path));
+    }
+
+    @Test
+    public void testRouteHeaders() {
+        CompiledRouter<String> compiled = StringRouter.create().compile();
+        RouteMatch<String> match = new RouteMatch<String>();
+
+        assertTrue(compiled.route(headers("GET", "/articles/123?x=1"), match));
+        assertEquals("show", match.target());
+        assertEquals("123",  match.pathParam("id"));
+        assertEquals("1",    match.queryParam("x"));
+
+        assertEquals("post",      compiled.route(headers("POST", "/articles")).target());
+        assertEquals("anyMethod", compiled.route(headers("PURGE", "/anyMethod")).target());
+        assertEquals("404",       compiled.route(new DefaultHttp2Headers().method("CONNECT")).target());
+
+        CompiledRouter<String> noNotFound = new Router<String>().GET("/", "index").compile();
+        assertFalse(noNotFound.route(new DefaultHttp2Headers(), match));
+        assertEquals("index", noNotFound.route(headers("GET", "/")).target());
+    }
+
+    @Test
+    public void testDispatchInterleavedStreams() {
+        EmbeddedChannel channel = new EmbeddedChannel(new Http2RouterHandler(router));
+
+        Http2StreamFrame uploadHeaders = new DefaultHttp2HeadersFrame(headers("POST", "/uploads")).streamId(3);
+        Http2StreamFrame showHeaders   = new DefaultHttp2HeadersFrame(headers("GET", "/articles/1"), true).streamId(5);
+        Http2StreamFrame data          = new DefaultHttp2DataFrame(Unpooled.copiedBuffer(new byte[] { 1 })).streamId(3);
+        Http2StreamFrame lastData      = new DefaultHttp2DataFrame(Unpooled.EMPTY_BUFFER, true).streamId(3);
+        channel.writeInbound(uploadHeaders, showHeaders, data, lastData);
+
+        assertEquals(3, upload.frames.size());
+        assertSame(uploadHeaders, upload.frames.get(0));
+        assertSame(data,          upload.frames.get(1));
+        assertSame(lastData,      upload.frames.get(2));
+        assertSame(upload, upload.routeResults.get(2).target());
+
+        assertEquals(1, show.frames.size());
+        assertEquals("1", show.routeResults.get(0).pathParams().get("id"));
+
+        // Stream 3 has ended, a late frame is not dispatched
+        Http2StreamFrame late = new DefaultHttp2DataFrame(Unpooled.EMPTY_BUFFER, true).streamId(3);
+        channel.writeInbound(late);
+        assertSame(late, channel.readInbound());
+        assertEquals(3, upload.frames.size());
+        channel.finish();
+    }
+
+    @Test
+    public void testStreamResetByServer() {
+        EmbeddedChannel channel = new EmbeddedChannel(new Http2RouterHandler(router));
+
+        Http2StreamFrame uploadHeaders = new DefaultHttp2HeadersFrame(headers("POST", "/uploads")).streamId(3);
+        channel.writeInbound(uploadHeaders);
+        assertEquals(1, upload.frames.size());
+
+        // The upload is rejected early: the codec closes the stream without
+        // reading its last frame
+        Http2StreamClosedEvent closed = new Http2StreamClosedEvent(3);
+        channel.pipeline().fireUserEventTriggered(closed);
+
+        Http2StreamFrame late = new DefaultHttp2DataFrame(Unpooled.EMPTY_BUFFER, true).streamId(3);
+        channel.writeInbound(late);
+        assertSame(late, channel.readInbound());
+        assertEquals(1, upload.frames.size());
+        channel.finish();
+    }
+
+    @Test
+    public void testNoMatchIsPassedToNextHandler() {
+        EmbeddedChannel channel = new EmbeddedChannel(new Http2RouterHandler(router));
+
+        Http2StreamFrame notFound = new DefaultHttp2HeadersFrame(headers("GET", "/notFound")).streamId(3);
+        Http2StreamFrame data     = new DefaultHttp2DataFrame(Unpooled.EMPTY_BUFFER, true).streamId(3);
+        channel.writeInbound(notFound, data);
+
+        assertSame(notFound, channel.readInbound());
+        assertSame(data,     channel.readInbound());
+        assertNull(channel.readInbound());
+        assertTrue(show.frames.isEmpty());
+        channel.finish();
+    }
+}
@@ -79,4 +79,32 @@ public class ReverseRoutingTest {
         boolean matched2 = path.equals("/articles/123/json?y=2&x=1");
         assertEquals(true, matched1 || matched2);
     }
+
+    @Test
+    public void testCachedBestPatternWithDifferentParams() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("/articles/1/json", router.uri("show", "id", 1, "format", "json"));
+            assertEquals("/articles/2",      router.uri("show", "id", 2));
+            assertEquals("/articles/3?x=a+b", router.uri("show", "id", 3, "x", "a b"));
+        }
+    }
+
+    @Test
+    public void testRemoveOnePatternOfTarget() {
+        router.removePathPattern("/articles/:id/:format");
+        assertEquals("/articles/123?format=json", router.uri("show", "id", 123, "format", "json"));
+    }
+
+    @Test
+    public void testAddPatternAfterRemovingOthers() {
+        router.removePathPattern("/articles/:id");
+        router.removePathPattern("/articles/:id/:format");
+        assertEquals(null, router.uri("show", "id", 123));
+
+        router.GET("/posts/:id", "show");
+        router.GET("/posts/:id/:format", "show");
+        assertEquals("/posts/123",      router.uri("show", "id", 123));
+        assertEquals("/posts/123/json", router.uri("show", "id", 123, "format", "json"));
+        assertEquals("/posts/123",      router.compile().uri("show", "id", 123));
+    }
 }
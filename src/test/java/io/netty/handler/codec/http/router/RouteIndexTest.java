@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadedRouterRoutesTheSame() throws IOException {
+        HttpMethod purge = HttpMethod.valueOf("PURGE");
+        Router<String> router = StringRouter.create()
+                .GET("/users/:id<int>", "userById")
+                .GET("/users/:name",    "userByName")
+                .addRoute(purge, "/cache/:*", "purge")
+                .routeCache(16);
+        CompiledRouter<String> compiled = router.compile();
+
+        File file = folder.newFile();
+        RouteIndex.write(compiled, file, RouteIndex.STRING_TARGETS);
+        CompiledRouter<String> loaded = RouteIndex.load(file, RouteIndex.STRING_TARGETS);
+
+        assertEquals(compiled.size(),                loaded.size());
+        assertEquals(compiled.toString(),            loaded.toString());
+        assertEquals(compiled.allAllowedMethods(),   loaded.allAllowedMethods());
+        assertEquals(compiled.allowedMethods("/articles/1"), loaded.allowedMethods("/articles/1"));
+        assertEquals(compiled.allowedMethods("/anyMethod"),  loaded.allowedMethods("/anyMethod"));
+
+        String[] uris = {
+            "/articles", "/articles/new", "/articles/123", "/articles/123/json", "/download/a/b",
+            "/anyMethod", "/users/42", "/users/bob", "/cache/x", "/notFound"
+        };
+        for (HttpMethod method : new HttpMethod[] { GET, POST, purge }) {
+            for (String uri : uris) {
+                RouteResult<String> expected = compiled.route(method, uri);
+                RouteResult<String> actual = loaded.route(method, uri);
+                assertEquals(method + " " + uri, expected.target(),     actual.target());
+                assertEquals(method + " " + uri, expected.pathParams(), actual.pathParams());
+            }
+        }
+        assertEquals(42, loaded.route(GET, "/users/42").typedPathParam("id"));
+
+        assertEquals("/articles/123/json", loaded.uri("show", "id", 123, "format", "json"));
+        assertEquals("/download/a/b",      loaded.uri("download", "*", "a/b"));
+        assertEquals("404",                loaded.notFound());
+    }
+
+    @Test
+    public void testTargetsAreDecodedOnce() throws IOException {
+        final Action index = new Index();
+        final Action show = new Show();
+        final List<String> decoded = new ArrayList<String>();
+        RouteIndex.TargetCodec<Action> codec = new RouteIndex.TargetCodec<Action>() {
+            @Override
+            public String encode(Action target) {
+                return target.getClass().getSimpleName();
+            }
+
+            @Override
+            public Action decode(String name) {
+                decoded.add(name);
+                return "Index".equals(name) ? index : show;
+            }
+        };
+
+        Router<Action> router = new Router<Action>()
+                .GET("/articles",            index)
+                .GET("/articles/:id",        show)
+                .GET("/articles/:id/:format", show);
+
+        File file = folder.newFile();
+        RouteIndex.write(router.compile(), file, codec);
+        CompiledRouter<Action> loaded = RouteIndex.load(file, codec);
+
+        assertSame(index, loaded.route(GET, "/articles").target());
+        assertSame(show,  loaded.route(GET, "/articles/1/json").target());
+        assertEquals("/articles/1", loaded.uri(show, "id", 1));
+
+        // "Show" has two routes
+        assertEquals(2, decoded.size());
+        assertTrue(decoded.contains("Index"));
+        assertTrue(decoded.contains("Show"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersion() throws IOException {
+        File file = folder.newFile();
+        RouteIndex.write(StringRouter.create().compile(), file, RouteIndex.STRING_TARGETS);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+        RouteIndex.load(file, RouteIndex.STRING_TARGETS);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNegativeLength() throws IOException {
+        File file = folder.newFile();
+        RouteIndex.write(StringRouter.create().compile(), file, RouteIndex.STRING_TARGETS);
+
+        // The number of strings, after the magic number and the version
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(8);
+        raf.writeInt(-2);
+        raf.close();
+        RouteIndex.load(file, RouteIndex.STRING_TARGETS);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptPattern() throws IOException {
+        File file = folder.newFile();
+        RouteIndex.write(new Router<String>().GET("/users/:id<int>", "user").compile(), file,
+                         RouteIndex.STRING_TARGETS);
+
+        // Strings are stored as chars: the constraint is no longer closed
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        byte[] bytes = new byte[(int) raf.length()];
+        raf.readFully(bytes);
+        for (int i = 0; i + 1 < bytes.length; i++) {
+            if (bytes[i] == 0 && bytes[i + 1] == '>') {
+                raf.seek(i + 1);
+                raf.writeByte(' ');
+            }
+        }
+        raf.close();
+        RouteIndex.load(file, RouteIndex.STRING_TARGETS);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        File file = folder.newFile();
+        RouteIndex.write(StringRouter.create().compile(), file, RouteIndex.STRING_TARGETS);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 8);
+        raf.close();
+        RouteIndex.load(file, RouteIndex.STRING_TARGETS);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+public class RouteMetricsTest {
+    @Test
+    public void testCounts() {
+        RouteMetrics metrics = new RouteMetrics();
+        Router<String> router = StringRouter.create().metrics(metrics).routeCache(16);
+
+        for (int i = 0; i < 3; i++) {
+            router.route(GET, "/articles/" + i);
+        }
+        router.route(GET,  "/articles/1");   // From the cache
+        router.route(POST, "/articles");
+        router.route(GET,  "/notFound");
+        router.route(HttpMethod.valueOf("PURGE"), "/anyMethod");
+
+        RouteMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.route("GET", "/articles/:id").count());
+        assertEquals(1, snapshot.route("POST", "/articles").count());
+        assertEquals(1, snapshot.route("*", "/anyMethod").count());
+        assertEquals(0, snapshot.route("GET", "/articles").count());
+        assertNull(snapshot.route("PUT", "/articles"));
+        assertEquals(1, snapshot.notFound());
+        assertEquals(7, snapshot.routingLatency().count());
+
+        // Counts continue after routes change
+        router.GET("/other", "other");
+        router.route(POST, "/articles");
+        assertEquals(2, metrics.snapshot().route("POST", "/articles").count());
+    }
+
+    @Test
+    public void testDispatchLatency() {
+        @Sharable
+        class SlowHandler extends ChannelInboundHandlerAdapter {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                ReferenceCountUtil.release(msg);
+                Thread.sleep(2);
+            }
+        }
+
+        RouteMetrics metrics = new RouteMetrics();
+        Router<ChannelInboundHandler> router = new Router<ChannelInboundHandler>()
+                .GET("/slow", new SlowHandler())
+                .metrics(metrics);
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, GET, "/slow"));
+        channel.finish();
+
+        LatencySnapshot latency = metrics.snapshot().route("GET", "/slow").latency();
+        assertEquals(1, latency.count());
+        assertTrue(latency.valueAtPercentile(50) >= 2000000);
+        assertTrue(latency.max() >= latency.valueAtPercentile(50));
+        assertTrue(latency.mean() >= 2000000);
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : new long[] { 0, 1, 3, 4, 7, 8, 100, 12345, 1L << 39, (1L << 40) - 1 }) {
+            int bucket = LatencyHistogram.bucket(value);
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertTrue(value + " <= " + highest, value <= highest);
+            assertTrue(value + " within 25%", highest - value <= value / 4);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.highestValue(bucket - 1) < value);
+            }
+        }
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count());
+        assertEquals(50500, snapshot.mean(), 0.1);
+        assertTrue(snapshot.valueAtPercentile(50) >= 50000 && snapshot.valueAtPercentile(50) < 62500);
+        assertTrue(snapshot.max() >= 100000 && snapshot.max() < 125000);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RouteProfilerTest {
+    @Test
+    public void testProfile() {
+        RouteProfiler profiler = new RouteProfiler(1);
+        Router<String> router = StringRouter.create().profiler(profiler).routeCache(16);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("show", router.route(GET, "/articles/123/json").target());
+        }
+        assertEquals("index", router.route(GET, "/articles").target());
+        assertEquals("404",   router.route(GET, "/articles/123/json/more").target());
+
+        Map<String, RouteProfiler.ShapeReport> shapes = new HashMap<String, RouteProfiler.ShapeReport>();
+        for (RouteProfiler.ShapeReport shape : profiler.shapes()) {
+            shapes.put(shape.shape(), shape);
+        }
+        assertEquals(3, shapes.size());
+
+        // Sampled requests are not served from the cache
+        RouteProfiler.ShapeReport show = shapes.get("GET /articles/:id/:format");
+        assertEquals(3, show.samples());
+        assertTrue(show.meanNodesVisited() >= 3);
+
+        // "first" section, then "other"; root -> articles -> :id -> :format
+        RouteProfiler.ShapeReport notFound = shapes.get("notFound");
+        assertEquals(1, notFound.samples());
+        assertTrue(notFound.meanBacktracks() > 0);
+        assertTrue(notFound.meanSectionsTried() >= 2);
+
+        // "/articles" and "/articles/:id" are shorter than the request paths
+        Map<String, Long> rejected = profiler.rejectedPatterns();
+        assertEquals(Long.valueOf(4), rejected.get("/articles"));
+        assertEquals(Long.valueOf(4), rejected.get("/articles/:id"));
+
+        List<RouteProfiler.ShapeReport> slowest = profiler.slowest(1);
+        assertEquals(1, slowest.size());
+
+        profiler.reset();
+        assertTrue(profiler.shapes().isEmpty());
+    }
+
+    @Test
+    public void testNoSample() {
+        RouteProfiler profiler = new RouteProfiler(0);
+        Router<String> router = StringRouter.create().profiler(profiler);
+        assertEquals("show", router.route(GET, "/articles/123").target());
+        assertTrue(profiler.shapes().isEmpty());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.handler.codec.http.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouterHandlerTest {
+    @Sharable
+    private static class RecordingHandler extends ChannelInboundHandlerAdapter {
+        final List<Object> msgs = new ArrayList<Object>();
+        final List<RouteResult<ChannelInboundHandler>> routeResults = new ArrayList<RouteResult<ChannelInboundHandler>>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof FullHttpRequest) {
+                // Keep what the aggregated content was
+                FullHttpRequest req = (FullHttpRequest) msg;
+                msgs.add(req.content().toString(CharsetUtil.US_ASCII));
+            } else {
+                msgs.add(msg);
+            }
+            routeResults.add(ctx.channel().attr(RouterHandler.ROUTE_RESULT).get());
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private RecordingHandler show;
+    private RecordingHandler upload;
+    private Router<ChannelInboundHandler> router;
+
+    @Before
+    public void setUp() {
+        show = new RecordingHandler();
+        upload = new RecordingHandler();
+        router = new Router<ChannelInboundHandler>()
+                .GET("/articles/:id", show)
+                .POST("/uploads", upload);
+    }
+
+    @Test
+    public void testDispatchRequestAndChunks() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/uploads?name=a");
+        HttpContent chunk = new DefaultHttpContent(Unpooled.copiedBuffer(new byte[] { 1, 2 }));
+        LastHttpContent last = new DefaultLastHttpContent();
+        channel.writeInbound(req, chunk, last);
+
+        assertEquals(3, upload.msgs.size());
+        assertSame(req,   upload.msgs.get(0));
+        assertSame(chunk, upload.msgs.get(1));
+        assertSame(last,  upload.msgs.get(2));
+        assertTrue(show.msgs.isEmpty());
+
+        RouteResult<ChannelInboundHandler> routeResult = upload.routeResults.get(0);
+        assertSame(upload, routeResult.target());
+        assertEquals("a", routeResult.queryParam("name"));
+        assertSame(routeResult, upload.routeResults.get(2));
+
+        // The next request of the same channel is routed again
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/articles/123"));
+        assertEquals(1, show.msgs.size());
+        assertEquals("123", show.routeResults.get(0).pathParams().get("id"));
+        assertEquals(3, upload.msgs.size());
+
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+    @Test
+    public void testNoMatchIsPassedToNextHandler() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/notFound");
+        LastHttpContent last = new DefaultLastHttpContent();
+        channel.writeInbound(req, last);
+
+        assertSame(req,  channel.readInbound());
+        assertSame(last, channel.readInbound());
+        assertNull(channel.attr(RouterHandler.ROUTE_RESULT).get());
+        assertTrue(show.msgs.isEmpty());
+        assertTrue(upload.msgs.isEmpty());
+        channel.finish();
+    }
+
+    @Test
+    public void testNotFoundAndRouteSwap() {
+        RecordingHandler notFound = new RecordingHandler();
+        router.notFound(notFound);
+        AtomicRouter<ChannelInboundHandler> current = new AtomicRouter<ChannelInboundHandler>(router.compile());
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(current));
+
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/new"));
+        assertEquals(1, notFound.msgs.size());
+
+        router.GET("/new", show);
+        current.set(router.compile());
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/new"));
+        assertEquals(1, show.msgs.size());
+        channel.finish();
+    }
+
+    @Test
+    public void testAggregatedTarget() {
+        RecordingHandler create = new RecordingHandler();
+        router.POST("/articles", new AggregatedTarget(create, 10));
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+
+        channel.writeInbound(
+                new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/articles"),
+                new DefaultHttpContent(Unpooled.copiedBuffer(new byte[] { 'a', 'b' })),
+                new DefaultLastHttpContent(Unpooled.copiedBuffer(new byte[] { 'c' })));
+        assertEquals(1, create.msgs.size());
+        assertEquals("abc", create.msgs.get(0));
+        assertTrue(channel.isOpen());
+
+        // Too long
+        channel.writeInbound(
+                new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/articles"),
+                new DefaultHttpContent(Unpooled.copiedBuffer(new byte[11])),
+                new DefaultLastHttpContent());
+        assertEquals(1, create.msgs.size());
+        HttpResponse res = channel.readOutbound();
+        assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, res.status());
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testAggregatedTargetRejectsLongContentLength() {
+        RecordingHandler create = new RecordingHandler();
+        router.POST("/articles", new AggregatedTarget(create, 10));
+        EmbeddedChannel channel = new EmbeddedChannel(new RouterHandler(router));
+
+        HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/articles");
+        req.headers().set(HttpHeaderNames.CONTENT_LENGTH, 1000);
+        channel.writeInbound(req);
+
+        HttpResponse res = channel.readOutbound();
+        assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, res.status());
+        assertTrue(create.msgs.isEmpty());
+    }
+}
@@ -15,17 +15,34 @@
  */
 package io.netty.handler.codec.http.router;
 
+import static io.netty.handler.codec.http.HttpMethod.DELETE;
 import static io.netty.handler.codec.http.HttpMethod.GET;
 import static io.netty.handler.codec.http.HttpMethod.POST;
+import static io.netty.handler.codec.http.HttpMethod.PUT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RoutingTest {
     private Router<String> router;
@@ -72,6 +89,18 @@ public class RoutingTest {
         assertEquals("/articles/123/456",   routed.decodedPath());
     }
 
+    @Test
+    public void testHandleQueryParams() {
+        RouteResult<String> routed = router.route(GET, "/articles/123?x=1&x=2&y=%20");
+        assertEquals("show",       routed.target());
+        assertEquals("/articles/123", routed.decodedPath());
+        assertEquals(2,            routed.queryParams().size());
+        assertEquals("1",          routed.queryParam("x"));
+        assertEquals(" ",          routed.param("y"));
+        assertEquals("123",        routed.param("id"));
+        assertEquals(2,            routed.params("x").size());
+    }
+
     @Test
     public void testHandleNone() {
         RouteResult<String> routed = router.route(GET, "/noexist");
@@ -86,6 +115,16 @@ public class RoutingTest {
         assertEquals("foo/bar.png", routed.pathParams().get("*"));
     }
 
+    @Test
+    public void testHandleEncodedSplatWildcard() {
+        RouteResult<String> routed1 = router.route(GET, "/download/a%20b//c+d?x=1");
+        assertEquals("download",   routed1.target());
+        assertEquals("a b//c d",   routed1.pathParams().get("*"));
+
+        RouteResult<String> routed2 = router.route(GET, "/download/foo//bar.png/?x=1");
+        assertEquals("foo//bar.png", routed2.pathParams().get("*"));
+    }
+
     @Test
     public void testHandleOrder() {
         RouteResult<String> routed1 = router.route(GET, "/articles/new");
@@ -102,6 +141,34 @@ public class RoutingTest {
         assertEquals(0,     routed3.pathParams().size());
     }
 
+    @Test
+    public void testSpecificityInSameSection() {
+        Router<String> router = new Router<String>()
+                .GET("/articles/:*",         "catchAll")
+                .GET("/articles/:id",        "show")
+                .GET("/articles/:id/edit",   "edit")
+                .GET("/articles/new",        "new")
+                .GET("/articles/new/:title", "newWithTitle");
+
+        assertEquals("new",          router.route(GET, "/articles/new").target());
+        assertEquals("show",         router.route(GET, "/articles/123").target());
+        assertEquals("edit",         router.route(GET, "/articles/123/edit").target());
+        assertEquals("newWithTitle", router.route(GET, "/articles/new/edit").target());
+        assertEquals("newWithTitle", router.route(GET, "/articles/new/foo").target());
+        assertEquals("catchAll",     router.route(GET, "/articles/123/foo").target());
+    }
+
+    @Test
+    public void testSectionOrderBeatsSpecificity() {
+        Router<String> router = new Router<String>()
+                .GET("/articles/new",      "new")
+                .GET_FIRST("/articles/:id", "first")
+                .GET_LAST("/articles/foo",  "last");
+
+        assertEquals("first", router.route(GET, "/articles/new").target());
+        assertEquals("first", router.route(GET, "/articles/foo").target());
+    }
+
     @Test
     public void testHandleAnyMethod() {
         RouteResult<String> routed1 = router.route(GET, "/anyMethod");
@@ -137,6 +204,310 @@ public class RoutingTest {
         assertTrue(methods.contains(POST));
     }
 
+    @Test
+    public void testBacktrackToOtherBranches() {
+        Router<String> router = new Router<String>()
+                .GET("/a/b/c", "abc")
+                .GET("/a/:x/d", "axd")
+                .GET("/a/:*",   "a*");
+
+        assertEquals("abc", router.route(GET, "/a/b/c").target());
+
+        RouteResult<String> routed1 = router.route(GET, "/a/b/d");
+        assertEquals("axd", routed1.target());
+        assertEquals("b",   routed1.pathParams().get("x"));
+
+        RouteResult<String> routed2 = router.route(GET, "/a/b/e");
+        assertEquals("a*",  routed2.target());
+        assertEquals("b/e", routed2.pathParams().get("*"));
+    }
+
+    @Test
+    public void testManyRoutes() {
+        Router<String> router = new Router<String>();
+        for (int i = 0; i < 2000; i++) {
+            router.GET("/static" + i + "/:id", "route" + i);
+        }
+
+        for (int i = 0; i < 2000; i += 97) {
+            RouteResult<String> routed = router.route(GET, "/static" + i + "/" + i);
+            assertEquals("route" + i,   routed.target());
+            assertEquals(String.valueOf(i), routed.pathParams().get("id"));
+        }
+        assertNull(router.route(GET, "/static2000/1"));
+    }
+
+    @Test
+    public void testFlatTreeSharesSegments() {
+        RouteTree<String> tree = new RouteTree<String>();
+        for (int i = 0; i < 100; i++) {
+            tree.add(new PathPattern("/landing/category" + (i % 10) + "/page/" + i), "page" + i);
+        }
+        tree.add(new PathPattern("/landing/:category/page/:id<int>"), "pageById");
+
+        // landing, category0..9, page, 0..99
+        FlatRouteTree<String> flat = new FlatRouteTree<String>(tree);
+        assertEquals(1 + 10 + 1 + 100, flat.numSegments());
+
+        PathTokens tokens = new PathTokens();
+        RouteMatch<String> match = new RouteMatch<String>();
+        tokens.tokenize("/landing/category3/page/13");
+        assertTrue(flat.route(tokens, match));
+        assertEquals("page13", match.target());
+
+        tokens.tokenize("/landing/category4/page/13");
+        assertTrue(flat.route(tokens, match));
+        assertEquals("pageById", match.target());
+        assertEquals(13, match.typedPathParam("id"));
+
+        tokens.tokenize("/landing/category4/page/x");
+        assertFalse(flat.route(tokens, match));
+    }
+
+    @Test
+    public void testAddRoutes() throws InterruptedException {
+        Router<String> router = new Router<String>().GET("/articles/:id", "show");
+
+        List<Route<String>> routes = new ArrayList<Route<String>>();
+        for (int i = 0; i < 10000; i++) {
+            routes.add(new Route<String>(GET, "/pages/" + i, "page" + i));
+        }
+        routes.add(new Route<String>(POST, "/articles", "post"));
+        routes.add(new Route<String>(null, "/anyMethod", "anyMethod"));
+        Route<String> duplicate = new Route<String>(GET, "/pages/7", "other");
+        Route<String> existing = new Route<String>(GET, "/articles/:id/", "other");
+        routes.add(duplicate);
+        routes.add(existing);
+        routes.add(new Route<String>(PUT, "/pages/7", "put"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<Route<String>, String> rejected = router.addRoutes(routes, executor);
+            assertEquals(2, rejected.size());
+            assertEquals("page7", rejected.get(duplicate));
+            assertEquals("show",  rejected.get(existing));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1 + 10000 + 3, router.size());
+        assertEquals("page9999",  router.route(GET, "/pages/9999").target());
+        assertEquals("page7",     router.route(GET, "/pages/7").target());
+        assertEquals("put",       router.route(PUT, "/pages/7").target());
+        assertEquals("post",      router.route(POST, "/articles").target());
+        assertEquals("anyMethod", router.route(DELETE, "/anyMethod").target());
+        assertEquals("/pages/42", router.uri("page42"));
+    }
+
+    @Test
+    public void testAddRoutesWithInvalidPattern() throws InterruptedException {
+        Router<String> router = new Router<String>();
+        List<Route<String>> routes = Arrays.asList(
+                new Route<String>(GET, "/articles", "index"),
+                new Route<String>(GET, "/articles?x=1", "invalid"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            router.addRoutes(routes, executor);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("/articles?x=1"));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, router.size());
+    }
+
+    @Test
+    public void testRemovePatternWithSameShape() {
+        Router<String> router = new Router<String>()
+                .GET("/users/:id",   "id")
+                .GET("/users/:name", "name");
+
+        assertEquals("id", router.route(GET, "/users/foo").target());
+
+        router.removePathPattern("/users/:id");
+        RouteResult<String> routed = router.route(GET, "/users/foo");
+        assertEquals("name", routed.target());
+        assertEquals("foo",  routed.pathParams().get("name"));
+    }
+
+    @Test
+    public void testRouteIntoReusableMatch() {
+        RouteMatch<String> match = new RouteMatch<String>();
+
+        assertTrue(router.route(GET, "/articles/123/json?x=1", match));
+        assertEquals("show", match.target());
+        assertEquals(2,      match.numPathParams());
+        assertEquals("id",   match.pathParamName(0));
+        assertEquals("123",  match.pathParamValue(0));
+        assertEquals("json", match.pathParam("format"));
+        assertEquals("1",    match.param("x"));
+
+        assertTrue(router.route(GET, "/articles", match));
+        assertEquals("index", match.target());
+        assertEquals(0,       match.numPathParams());
+        assertNull(match.pathParam("id"));
+        assertNull(match.queryParam("x"));
+
+        assertTrue(router.route(GET, "/noexist", match));
+        assertEquals("404", match.target());
+
+        Router<String> routerWithout404 = new Router<String>().GET("/articles", "index");
+        assertFalse(routerWithout404.route(GET, "/noexist", match));
+        assertNull(match.target());
+    }
+
+    @Test
+    public void testRouteMatchPerThread() {
+        RouteMatch<String> match1 = router.routeMatch(GET, "/articles/123");
+        assertEquals("show", match1.target());
+
+        RouteResult<String> copy = match1.toRouteResult();
+
+        RouteMatch<String> match2 = router.routeMatch(GET, "/download/foo/bar.png");
+        assertSame(match1, match2);
+        assertEquals("download",    match2.target());
+        assertEquals("foo/bar.png", match2.pathParam("*"));
+
+        assertEquals("show", copy.target());
+        assertEquals("123",  copy.pathParams().get("id"));
+    }
+
+    @Test
+    public void testRouteCharSequenceAndByteBuf() {
+        RouteMatch<String> match = new RouteMatch<String>();
+
+        assertTrue(router.route(GET, new AsciiString("/articles/123%2F456/json?x=1"), match));
+        assertEquals("show",    match.target());
+        assertEquals("123/456", match.pathParam("id"));
+        assertEquals("json",    match.pathParam("format"));
+        assertEquals("1",       match.queryParam("x"));
+        assertEquals("/articles/123%2F456/json?x=1", match.uri());
+
+        ByteBuf buf = Unpooled.copiedBuffer("GET /download/foo/bar.png HTTP/1.1", CharsetUtil.US_ASCII);
+        try {
+            assertTrue(router.route(GET, buf.slice(4, 21), match));
+            assertEquals("download",    match.target());
+            assertEquals("foo/bar.png", match.pathParam("*"));
+            assertEquals("/download/foo/bar.png", match.uri());
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testAllowedMethodsOfAllMatchingRoutes() {
+        Router<String> router = new Router<String>()
+                .GET("/a/:x",      "get")
+                .POST("/a/b",      "post")
+                .PUT("/a/:*",      "put")
+                .DELETE("/a/b/c",  "delete");
+
+        Set<HttpMethod> methods1 = router.allowedMethods("/a/b?x=1");
+        assertEquals(3, methods1.size());
+        assertTrue(methods1.contains(GET));
+        assertTrue(methods1.contains(POST));
+        assertTrue(methods1.contains(PUT));
+
+        Set<HttpMethod> methods2 = router.allowedMethods("/a/b/c");
+        assertEquals(2, methods2.size());
+        assertTrue(methods2.contains(PUT));
+        assertTrue(methods2.contains(DELETE));
+
+        assertSame(methods1, router.allowedMethods("/a/b/"));
+        assertEquals(0, router.allowedMethods("/b").size());
+        assertEquals(4, router.allAllowedMethods().size());
+
+        assertEquals(9, this.router.allowedMethods("/anyMethod").size());
+    }
+
+    @Test
+    public void testPathPatternTokens() {
+        PathPattern pattern = new PathPattern("/download/:dir/:*");
+        assertEquals(PathPattern.STATIC,    pattern.kind(0));
+        assertEquals(PathPattern.PARAM,     pattern.kind(1));
+        assertEquals(PathPattern.CATCH_ALL, pattern.kind(2));
+        assertTrue(pattern.isCatchAll());
+        assertSame("dir".intern(), pattern.paramNames()[1]);
+    }
+
+    @Test
+    public void testConstrainedParams() {
+        Router<String> router = new Router<String>()
+                .GET("/users/:name",               "byName")
+                .GET("/users/:id<int>",            "byId")
+                .GET("/users/:id<uuid>/avatar",    "avatar")
+                .GET("/tags/:slug<[a-z-]+>",       "tag")
+                .GET("/files/:size<long>/:*",      "file")
+                .notFound("404");
+
+        RouteResult<String> routed1 = router.route(GET, "/users/123");
+        assertEquals("byId",               routed1.target());
+        assertEquals("123",                routed1.pathParams().get("id"));
+        assertEquals(Integer.valueOf(123), routed1.typedPathParam("id"));
+
+        assertEquals("byName", router.route(GET, "/users/12a").target());
+        assertEquals("byName", router.route(GET, "/users/99999999999").target());
+        assertEquals("bob",    router.route(GET, "/users/bob").typedPathParam("name"));
+
+        String uuid = "123e4567-e89b-12d3-a456-426655440000";
+        RouteResult<String> routed2 = router.route(GET, "/users/" + uuid + "/avatar");
+        assertEquals("avatar",              routed2.target());
+        assertEquals(UUID.fromString(uuid), routed2.typedPathParam("id"));
+        assertEquals("404", router.route(GET, "/users/123e4567-e89b-12d3-a456-42665544000g/avatar").target());
+
+        assertEquals("tag", router.route(GET, "/tags/netty-router").target());
+        assertEquals("404", router.route(GET, "/tags/Netty").target());
+
+        RouteResult<String> routed3 = router.route(GET, "/files/-9223372036854775808/a/b");
+        assertEquals("file",         routed3.target());
+        assertEquals(Long.MIN_VALUE, routed3.typedPathParam("size"));
+        assertEquals("a/b",          routed3.pathParams().get("*"));
+        assertEquals("404", router.route(GET, "/files/9223372036854775808/a").target());
+
+        // Typed values also come from the route cache
+        Router<String> cached = new Router<String>().GET("/users/:id<int>", "byId").routeCache(16);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(-7), cached.route(GET, "/users/-7").typedPathParam("id"));
+        }
+
+        // Reverse routing uses the names without constraints
+        assertEquals("/users/123", router.uri(GET, "byId", "id", 123));
+    }
+
+    @Test
+    public void testConstraintsWithQuestionMarkOrSlash() {
+        Router<String> router = new Router<String>()
+                .GET("/tags/:slug<[a-z]+-?>",   "tag")
+                .GET("/codes/:code<(?i)abc>",   "code")
+                .GET("/paths/:p<[a-z/]+>/edit", "edit")
+                .notFound("404");
+
+        assertEquals("tag",  router.route(GET, "/tags/netty-").target());
+        assertEquals("tag",  router.route(GET, "/tags/netty").target());
+        assertEquals("code", router.route(GET, "/codes/ABC").target());
+        assertEquals("404",  router.route(GET, "/codes/abd").target());
+
+        // A path token never contains '/'
+        assertEquals(3, new PathPattern("/paths/:p<[a-z/]+>/edit").numTokens());
+        RouteResult<String> routed = router.route(GET, "/paths/foo/edit");
+        assertEquals("edit", routed.target());
+        assertEquals("foo",  routed.pathParams().get("p"));
+
+        String[] invalidPatterns = {
+            "/articles?x=1", "/:id<int>?x=1", "/:id<int", "/:<int>", "/:*<int>", "/:id<>"
+        };
+        for (String pattern : invalidPatterns) {
+            try {
+                new PathPattern(pattern);
+                fail(pattern);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
     @Test
     public void testHandleSubclasses() {
         Router<Class<? extends Action>> router = new Router<Class<? extends Action>>()